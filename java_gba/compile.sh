@@ -12,6 +12,12 @@ find src -name "*.java" > sources.txt
 # Compile all Java files
 javac -d bin @sources.txt
 
+# Optional SIMD compositor kernels, only when the JDK ships the Vector API
+if [ $? -eq 0 ] && java --list-modules 2>/dev/null | grep -q jdk.incubator.vector; then
+    echo "Compiling vector kernels..."
+    javac --add-modules jdk.incubator.vector -cp bin -d bin $(find src-vector -name "*.java")
+fi
+
 # Check if compilation was successful
 if [ $? -eq 0 ]; then
     echo "Compilation successful!"
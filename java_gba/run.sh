@@ -2,4 +2,9 @@
 # Run script for IodineGBA Java Edition
 
 echo "Starting IodineGBA Java Edition..."
-java -cp bin com.iodine.gba.Main
+# Resolve the Vector API when present so the SIMD compositor kernels can load
+if java --list-modules 2>/dev/null | grep -q jdk.incubator.vector; then
+    java --add-modules jdk.incubator.vector -cp bin com.iodine.gba.Main
+else
+    java -cp bin com.iodine.gba.Main
+fi
@@ -0,0 +1,193 @@
+package com.iodine.gba.graphics;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * GameBoyAdvanceCompositorVector - SIMD span kernels for the compositor
+ *
+ * Needs the jdk.incubator.vector module, so it lives in its own source root and is only
+ * compiled and loaded when the JDK provides it (see GameBoyAdvanceCompositor.vectorBackend).
+ * The kernels do the work of the scalar BG and OBJ kernels a full vector of pixels at a
+ * time: layers are merged with lane masks instead of early exits, and the color effects
+ * use the spread channel layout of GameBoyAdvanceColorEffectsRenderer.alphaBlend with plain
+ * lane arithmetic. The pixels left over at the end of a span go through the scalar kernel.
+ */
+public class GameBoyAdvanceCompositorVector implements GameBoyAdvanceCompositor.SpanBackend {
+    public static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    // The three 5-bit channels at bits 0, 11 and 22
+    public static final int SPREAD_CHANNEL_MASK = GameBoyAdvanceColorEffectsRenderer.SPREAD_CHANNEL_MASK;
+    public static final int SPREAD_OVERFLOW_MASK = GameBoyAdvanceColorEffectsRenderer.SPREAD_OVERFLOW_MASK;
+    public static final int SPREAD_RESULT_MASK = GameBoyAdvanceColorEffectsRenderer.SPREAD_RESULT_MASK;
+
+    @Override
+    public void generateSpanRenderers(GameBoyAdvanceCompositor compositor) {
+        GameBoyAdvanceCompositor.SpanRenderer[] spanRenderers = compositor.spanRenderers;
+        // The backdrop only kernels are a fill, they stay scalar
+        for (int layers = 1; layers < 0x20; layers++) {
+            // The scalar kernels of the same mask finish each span
+            GameBoyAdvanceCompositor.SpanRenderer normalTail = compositor.scalarSpanRenderers[layers];
+            GameBoyAdvanceCompositor.SpanRenderer effectsTail = compositor.scalarSpanRenderers[0x20 | layers];
+            if ((layers & 0x10) == 0) {
+                spanRenderers[layers] = (xStart, xEnd, layerOffsets) -> renderBGNormal(compositor, xStart, xEnd, layerOffsets, normalTail);
+                spanRenderers[0x20 | layers] = (xStart, xEnd, layerOffsets) -> renderBGWithEffects(compositor, xStart, xEnd, layerOffsets, effectsTail);
+            } else {
+                spanRenderers[layers] = (xStart, xEnd, layerOffsets) -> renderOBJ(compositor, xStart, xEnd, layerOffsets, false, normalTail);
+                spanRenderers[0x20 | layers] = (xStart, xEnd, layerOffsets) -> renderOBJ(compositor, xStart, xEnd, layerOffsets, true, effectsTail);
+            }
+        }
+    }
+
+    public static void renderBGNormal(GameBoyAdvanceCompositor compositor, int xStart, int xEnd, int[] layerOffsets, GameBoyAdvanceCompositor.SpanRenderer tail) {
+        int[] buffer = compositor.buffer;
+        IntVector backdrop = IntVector.broadcast(SPECIES, compositor.gfx.backdrop);
+        int x = xStart;
+        for (; x + SPECIES.length() <= xEnd; x += SPECIES.length()) {
+            // Back to front, so the front most opaque pixel is written last
+            IntVector currentPixel = backdrop;
+            for (int layer = layerOffsets.length - 1; layer >= 0; layer--) {
+                IntVector workingPixel = IntVector.fromArray(SPECIES, buffer, x | layerOffsets[layer]);
+                currentPixel = currentPixel.blend(workingPixel, isOpaque(workingPixel));
+            }
+            currentPixel.intoArray(buffer, x);
+        }
+        tail.renderSpan(x, xEnd, layerOffsets);
+    }
+
+    public static void renderBGWithEffects(GameBoyAdvanceCompositor compositor, int xStart, int xEnd, int[] layerOffsets, GameBoyAdvanceCompositor.SpanRenderer tail) {
+        int[] buffer = compositor.buffer;
+        GameBoyAdvanceColorEffectsRenderer colorEffectsRenderer = compositor.colorEffectsRenderer;
+        IntVector backdrop = IntVector.broadcast(SPECIES, compositor.gfx.backdrop);
+        int x = xStart;
+        for (; x + SPECIES.length() <= xEnd; x += SPECIES.length()) {
+            IntVector currentPixel = backdrop;
+            IntVector lowerPixel = backdrop;
+            // Back to front, each opaque pixel pushes the one in front of it down
+            for (int layer = layerOffsets.length - 1; layer >= 0; layer--) {
+                IntVector workingPixel = IntVector.fromArray(SPECIES, buffer, x | layerOffsets[layer]);
+                VectorMask<Integer> opaque = isOpaque(workingPixel);
+                lowerPixel = lowerPixel.blend(currentPixel, opaque);
+                currentPixel = currentPixel.blend(workingPixel, opaque);
+            }
+            processPixelNormal(colorEffectsRenderer, lowerPixel, currentPixel).intoArray(buffer, x);
+        }
+        tail.renderSpan(x, xEnd, layerOffsets);
+    }
+
+    public static void renderOBJ(GameBoyAdvanceCompositor compositor, int xStart, int xEnd, int[] layerOffsets, boolean doEffects, GameBoyAdvanceCompositor.SpanRenderer tail) {
+        int[] buffer = compositor.buffer;
+        GameBoyAdvanceColorEffectsRenderer colorEffectsRenderer = compositor.colorEffectsRenderer;
+        IntVector backdrop = IntVector.broadcast(SPECIES, compositor.gfx.backdrop);
+        int x = xStart;
+        for (; x + SPECIES.length() <= xEnd; x += SPECIES.length()) {
+            IntVector currentPixel = backdrop;
+            IntVector lowerPixel = backdrop;
+            // Back to front, each opaque pixel pushes the one in front of it down
+            for (int layer = layerOffsets.length - 1; layer >= 0; layer--) {
+                IntVector workingPixel = IntVector.fromArray(SPECIES, buffer, x | layerOffsets[layer]);
+                VectorMask<Integer> opaque = isOpaque(workingPixel);
+                lowerPixel = lowerPixel.blend(currentPixel, opaque);
+                currentPixel = currentPixel.blend(workingPixel, opaque);
+            }
+            // Merge the sprite pixel by its own priority
+            IntVector workingPixel = IntVector.fromArray(SPECIES, buffer, x | 0x500);
+            IntVector spritePriority = workingPixel.and(0x3800000);
+            VectorMask<Integer> aboveCurrent = spritePriority.compare(VectorOperators.LE, currentPixel.and(0x1800000));
+            VectorMask<Integer> aboveLower = spritePriority.compare(VectorOperators.LE, lowerPixel.and(0x1800000)).andNot(aboveCurrent);
+            lowerPixel = lowerPixel.blend(currentPixel, aboveCurrent).blend(workingPixel, aboveLower);
+            currentPixel = currentPixel.blend(workingPixel, aboveCurrent);
+            VectorMask<Integer> semiTransparent = currentPixel.and(0x400000).compare(VectorOperators.NE, 0);
+            IntVector result = doEffects ? processPixelNormal(colorEffectsRenderer, lowerPixel, currentPixel) : currentPixel;
+            if (semiTransparent.anyTrue()) {
+                result = result.blend(processPixelSprite(colorEffectsRenderer, lowerPixel, currentPixel), semiTransparent);
+            }
+            result.intoArray(buffer, x);
+        }
+        tail.renderSpan(x, xEnd, layerOffsets);
+    }
+
+    public static VectorMask<Integer> isOpaque(IntVector pixel) {
+        return pixel.and(0x2000000).compare(VectorOperators.EQ, 0);
+    }
+
+    /**
+     * Lane version of GameBoyAdvanceColorEffectsRenderer.processPixelNormal.
+     */
+    public static IntVector processPixelNormal(GameBoyAdvanceColorEffectsRenderer colorEffectsRenderer, IntVector lowerPixel, IntVector topPixel) {
+        IntVector result = topPixel.and(0x7FFF);
+        VectorMask<Integer> target1 = topPixel.and(colorEffectsRenderer.effectsTarget1).compare(VectorOperators.NE, 0);
+        switch (colorEffectsRenderer.colorEffectsType) {
+            case 1: {
+                VectorMask<Integer> blended = target1.and(lowerPixel.and(colorEffectsRenderer.effectsTarget2).compare(VectorOperators.NE, 0))
+                        .and(topPixel.compare(VectorOperators.NE, lowerPixel));
+                if (blended.anyTrue()) {
+                    result = result.blend(alphaBlend(colorEffectsRenderer, topPixel, lowerPixel), blended);
+                }
+                break;
+            }
+            case 2:
+                result = result.blend(brightnessIncrease(colorEffectsRenderer, topPixel), target1);
+                break;
+            case 3:
+                result = result.blend(brightnessDecrease(colorEffectsRenderer, topPixel), target1);
+                break;
+        }
+        return result;
+    }
+
+    /**
+     * Lane version of GameBoyAdvanceColorEffectsRenderer.processPixelSprite.
+     */
+    public static IntVector processPixelSprite(GameBoyAdvanceColorEffectsRenderer colorEffectsRenderer, IntVector lowerPixel, IntVector topPixel) {
+        IntVector result = topPixel.and(0x7FFF);
+        VectorMask<Integer> target2 = lowerPixel.and(colorEffectsRenderer.effectsTarget2).compare(VectorOperators.NE, 0);
+        int colorEffectsType = colorEffectsRenderer.colorEffectsType;
+        if (colorEffectsType >= 2) {
+            VectorMask<Integer> target1 = topPixel.and(colorEffectsRenderer.effectsTarget1).compare(VectorOperators.NE, 0).andNot(target2);
+            IntVector faded = (colorEffectsType == 2) ? brightnessIncrease(colorEffectsRenderer, topPixel) : brightnessDecrease(colorEffectsRenderer, topPixel);
+            result = result.blend(faded, target1);
+        }
+        if (target2.anyTrue()) {
+            result = result.blend(alphaBlend(colorEffectsRenderer, topPixel, lowerPixel), target2);
+        }
+        return result;
+    }
+
+    public static IntVector alphaBlend(GameBoyAdvanceColorEffectsRenderer colorEffectsRenderer, IntVector topPixel, IntVector lowerPixel) {
+        IntVector sum = spreadChannels(topPixel).mul(colorEffectsRenderer.alphaBlendAmountTarget1)
+                .add(spreadChannels(lowerPixel).mul(colorEffectsRenderer.alphaBlendAmountTarget2));
+        IntVector result = sum.lanewise(VectorOperators.LSHR, 4).and(SPREAD_RESULT_MASK);
+        // Saturate channels that went past 0x1F
+        IntVector overflow = result.and(SPREAD_OVERFLOW_MASK).lanewise(VectorOperators.LSHR, 5).mul(0x1F);
+        return packChannels(result.or(overflow).and(SPREAD_CHANNEL_MASK));
+    }
+
+    public static IntVector brightnessIncrease(GameBoyAdvanceColorEffectsRenderer colorEffectsRenderer, IntVector topPixel) {
+        // Add (max - current) * amount / 16, the fractions of the channel above are masked off
+        IntVector channels = spreadChannels(topPixel);
+        IntVector increase = channels.lanewise(VectorOperators.XOR, SPREAD_CHANNEL_MASK).mul(colorEffectsRenderer.brightnessEffectAmount)
+                .lanewise(VectorOperators.LSHR, 4).and(SPREAD_CHANNEL_MASK);
+        return packChannels(channels.add(increase));
+    }
+
+    public static IntVector brightnessDecrease(GameBoyAdvanceColorEffectsRenderer colorEffectsRenderer, IntVector topPixel) {
+        // Multiply by (16 - amount) / 16
+        IntVector channels = spreadChannels(topPixel).mul(0x10 - colorEffectsRenderer.brightnessEffectAmount);
+        return packChannels(channels.lanewise(VectorOperators.LSHR, 4).and(SPREAD_CHANNEL_MASK));
+    }
+
+    public static IntVector spreadChannels(IntVector pixel) {
+        return pixel.and(0x1F)
+                .or(pixel.and(0x3E0).lanewise(VectorOperators.LSHL, 6))
+                .or(pixel.and(0x7C00).lanewise(VectorOperators.LSHL, 12));
+    }
+
+    public static IntVector packChannels(IntVector channels) {
+        return channels.and(0x1F)
+                .or(channels.lanewise(VectorOperators.LSHR, 6).and(0x3E0))
+                .or(channels.lanewise(VectorOperators.LSHR, 12).and(0x7C00));
+    }
+}
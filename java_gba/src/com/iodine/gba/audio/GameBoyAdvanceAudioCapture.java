@@ -0,0 +1,295 @@
+package com.iodine.gba.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GameBoyAdvanceAudioCapture - Streams the emulator's audio output to disk
+ *
+ * The emulation thread hands sample blocks over with push(), which only copies into a
+ * preallocated block and queues it. A background writer thread converts the blocks to
+ * 16-bit PCM and writes them through a FileChannel, so disk I/O never stalls emulation.
+ * If the writer falls behind and no free block is available, samples are dropped and counted.
+ * Blocks pushed with a tempo other than 1.0 are time-stretched on the writer thread.
+ */
+public class GameBoyAdvanceAudioCapture {
+    // Output formats
+    public static final int FORMAT_WAV = 0;
+    public static final int FORMAT_RAW = 1;
+
+    // Stereo 16-bit output
+    public static final int CHANNELS = 2;
+    public static final int BYTES_PER_SAMPLE = 2;
+    public static final int WAV_HEADER_SIZE = 44;
+
+    // Settings
+    public int format;
+    public int sampleRate;
+    public int blockSize;            // Interleaved samples per block
+    public int blockCount;
+
+    // Block hand-off between the emulation thread and the writer thread
+    public ArrayBlockingQueue<AudioBlock> freeBlocks;
+    public ArrayBlockingQueue<AudioBlock> filledBlocks;
+    public AudioBlock currentBlock;
+
+    // Writer state
+    public FileChannel channel;
+    public RandomAccessFile file;
+    public ByteBuffer outputBuffer;  // Direct buffer holding one converted block
+    public ByteBuffer headerBuffer;  // Direct buffer for the WAV header
+    public Thread writerThread;
+    public volatile boolean closing;
+    public volatile IOException writerError;
+    public GameBoyAdvanceAudioTimeStretch timeStretch;  // Writer thread only, created on first tempo change
+
+    // Metrics
+    public volatile long samplesWritten;
+    public volatile long samplesDropped;
+
+    /**
+     * A block of interleaved float samples in the emulator's [-1.0, 1.0] output range.
+     */
+    public static class AudioBlock {
+        public final float[] samples;
+        public int length;
+        public double tempo;
+
+        public AudioBlock(int size) {
+            samples = new float[size];
+            length = 0;
+            tempo = 1.0;
+        }
+    }
+
+    public GameBoyAdvanceAudioCapture(File outputFile, int sampleRate, int format) throws IOException {
+        this(outputFile, sampleRate, format, 4096, 64);
+    }
+
+    public GameBoyAdvanceAudioCapture(File outputFile, int sampleRate, int format, int blockSize, int blockCount) throws IOException {
+        this.format = format;
+        this.sampleRate = sampleRate;
+        // Keep blocks aligned to whole stereo frames
+        this.blockSize = Math.max(blockSize & ~1, 2);
+        this.blockCount = Math.max(blockCount, 2);
+        initializeBlocks();
+        initializeOutput(outputFile);
+        startWriter();
+    }
+
+    public void initializeBlocks() {
+        freeBlocks = new ArrayBlockingQueue<>(blockCount);
+        filledBlocks = new ArrayBlockingQueue<>(blockCount);
+        for (int index = 0; index < blockCount; index++) {
+            freeBlocks.offer(new AudioBlock(blockSize));
+        }
+        currentBlock = freeBlocks.poll();
+        outputBuffer = ByteBuffer.allocateDirect(blockSize * BYTES_PER_SAMPLE).order(ByteOrder.LITTLE_ENDIAN);
+        headerBuffer = ByteBuffer.allocateDirect(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public void initializeOutput(File outputFile) throws IOException {
+        file = new RandomAccessFile(outputFile, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        if (format == FORMAT_WAV) {
+            // Sizes are placeholders until close() patches them
+            writeWAVHeader(0);
+            // The header is written in place, the samples follow it
+            channel.position(WAV_HEADER_SIZE);
+        }
+    }
+
+    public void startWriter() {
+        closing = false;
+        writerThread = new Thread(this::writerLoop, "IodineGBA Audio Capture");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Called from the emulation thread. Never blocks.
+     *
+     * @param buffer Interleaved stereo samples
+     * @param length Number of valid entries in buffer
+     */
+    public void push(float[] buffer, int length) {
+        push(buffer, length, 1.0);
+    }
+
+    /**
+     * Called from the emulation thread. Never blocks.
+     *
+     * @param buffer Interleaved stereo samples
+     * @param length Number of valid entries in buffer
+     * @param tempo Rate the samples were produced at relative to the output rate
+     */
+    public void push(float[] buffer, int length, double tempo) {
+        if (currentBlock != null && currentBlock.tempo != tempo) {
+            // Blocks carry a single tempo
+            submitBlock();
+        }
+        int position = 0;
+        while (position < length) {
+            AudioBlock block = currentBlock;
+            if (block == null) {
+                // Writer is behind, try to reclaim a block
+                block = freeBlocks.poll();
+                if (block == null) {
+                    samplesDropped += (length - position) >> 1;
+                    return;
+                }
+                block.length = 0;
+                currentBlock = block;
+            }
+            block.tempo = tempo;
+            int amount = Math.min(length - position, blockSize - block.length);
+            System.arraycopy(buffer, position, block.samples, block.length, amount);
+            block.length += amount;
+            position += amount;
+            if (block.length == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    public void submitBlock() {
+        AudioBlock block = currentBlock;
+        if (block != null && block.length > 0) {
+            // Queue is sized to the block pool, so this always succeeds
+            filledBlocks.offer(block);
+            currentBlock = freeBlocks.poll();
+            if (currentBlock != null) {
+                currentBlock.length = 0;
+            }
+        }
+    }
+
+    public void writerLoop() {
+        try {
+            while (true) {
+                AudioBlock block = filledBlocks.poll(50, TimeUnit.MILLISECONDS);
+                if (block != null) {
+                    processBlock(block);
+                    block.length = 0;
+                    freeBlocks.offer(block);
+                } else if (closing) {
+                    // The last block may have been queued after the timed poll gave up
+                    while ((block = filledBlocks.poll()) != null) {
+                        processBlock(block);
+                        block.length = 0;
+                        freeBlocks.offer(block);
+                    }
+                    break;
+                }
+            }
+        } catch (IOException error) {
+            writerError = error;
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void processBlock(AudioBlock block) throws IOException {
+        if (timeStretch == null && block.tempo != 1.0) {
+            timeStretch = new GameBoyAdvanceAudioTimeStretch(sampleRate);
+        }
+        if (timeStretch != null) {
+            // Stay on the stretch path once started so the stream remains continuous
+            timeStretch.process(block.samples, block.length, block.tempo);
+            writeSamples(timeStretch.outputBuffer, timeStretch.outputLength);
+        } else {
+            writeSamples(block.samples, block.length);
+        }
+    }
+
+    public void writeSamples(float[] samples, int length) throws IOException {
+        ByteBuffer output = outputBuffer;
+        for (int position = 0; position < length; ) {
+            int end = Math.min(position + blockSize, length);
+            output.clear();
+            for (int index = position; index < end; index++) {
+                // Clamp and convert to signed 16-bit PCM
+                float sample = Math.max(Math.min(samples[index], 1.0f), -1.0f);
+                output.putShort((short) (sample * 0x7FFF));
+            }
+            output.flip();
+            while (output.hasRemaining()) {
+                channel.write(output);
+            }
+            samplesWritten += (end - position) >> 1;
+            position = end;
+        }
+    }
+
+    public void writeWAVHeader(long dataSize) throws IOException {
+        ByteBuffer header = headerBuffer;
+        header.clear();
+        header.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F');
+        header.putInt((int) Math.min(dataSize + 36, 0xFFFFFFFFL));
+        header.put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E');
+        header.put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ');
+        header.putInt(16);                                          // PCM chunk size
+        header.putShort((short) 1);                                 // PCM format
+        header.putShort((short) CHANNELS);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * CHANNELS * BYTES_PER_SAMPLE);    // Byte rate
+        header.putShort((short) (CHANNELS * BYTES_PER_SAMPLE));     // Block align
+        header.putShort((short) (BYTES_PER_SAMPLE << 3));           // Bits per sample
+        header.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a');
+        header.putInt((int) Math.min(dataSize, 0xFFFFFFFFL));
+        header.flip();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+    }
+
+    /**
+     * Flush the pending block, stop the writer thread and finalize the file.
+     * Must be called from the thread that calls push().
+     */
+    public void close() throws IOException {
+        if (writerThread == null) {
+            return;
+        }
+        submitBlock();
+        closing = true;
+        try {
+            writerThread.join();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+        writerThread = null;
+        try {
+            if (writerError == null && timeStretch != null) {
+                timeStretch.flush();
+                writeSamples(timeStretch.outputBuffer, timeStretch.outputLength);
+            }
+            if (writerError == null && format == FORMAT_WAV) {
+                writeWAVHeader(samplesWritten * CHANNELS * BYTES_PER_SAMPLE);
+            }
+            channel.force(false);
+        } finally {
+            channel.close();
+            file.close();
+        }
+        if (writerError != null) {
+            throw writerError;
+        }
+    }
+
+    public long getSamplesWritten() {
+        return samplesWritten;
+    }
+
+    public long getSamplesDropped() {
+        return samplesDropped;
+    }
+}
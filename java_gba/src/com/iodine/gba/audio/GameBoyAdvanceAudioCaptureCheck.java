@@ -0,0 +1,65 @@
+package com.iodine.gba.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+/**
+ * GameBoyAdvanceAudioCaptureCheck - Layout check for the captured audio files
+ *
+ * Captures a known number of sample frames in WAV and raw format and checks that the file
+ * holds the header and every frame, with the RIFF and data sizes patched at close matching
+ * the data actually written. Run with
+ * java -cp bin com.iodine.gba.audio.GameBoyAdvanceAudioCaptureCheck
+ */
+public class GameBoyAdvanceAudioCaptureCheck {
+    public static final int FRAME_SIZE = GameBoyAdvanceAudioCapture.CHANNELS * GameBoyAdvanceAudioCapture.BYTES_PER_SAMPLE;
+
+    public static void main(String[] args) throws IOException {
+        boolean matches = true;
+        // A single frame, a partial block, and several blocks with a partial one at the end
+        for (int frames : new int[] {1, 50, 1000}) {
+            matches &= checkCapture(GameBoyAdvanceAudioCapture.FORMAT_WAV, frames);
+            matches &= checkCapture(GameBoyAdvanceAudioCapture.FORMAT_RAW, frames);
+        }
+        if (!matches) {
+            System.exit(1);
+        }
+    }
+
+    public static boolean checkCapture(int format, int frames) throws IOException {
+        File outputFile = File.createTempFile("iodinegba-capture", ".wav");
+        try {
+            float[] samples = new float[frames << 1];
+            for (int index = 0; index < samples.length; index++) {
+                samples[index] = ((index & 0xF) - 8) / 8.0f;
+            }
+            // Enough blocks for every sample, so none are dropped however slow the writer is
+            int blockCount = (samples.length >> 6) + 1;
+            GameBoyAdvanceAudioCapture capture = new GameBoyAdvanceAudioCapture(outputFile, 32768, format, 64, blockCount);
+            capture.push(samples, samples.length);
+            capture.close();
+            byte[] contents = Files.readAllBytes(outputFile.toPath());
+            boolean matches = capture.getSamplesDropped() == 0 && capture.getSamplesWritten() == frames;
+            long dataSize = (long) frames * FRAME_SIZE;
+            if (format == GameBoyAdvanceAudioCapture.FORMAT_WAV) {
+                ByteBuffer header = ByteBuffer.wrap(contents).order(ByteOrder.LITTLE_ENDIAN);
+                matches &= contents.length == GameBoyAdvanceAudioCapture.WAV_HEADER_SIZE + dataSize;
+                matches &= contents.length >= GameBoyAdvanceAudioCapture.WAV_HEADER_SIZE
+                        && new String(contents, 0, 4, "US-ASCII").equals("RIFF")
+                        && header.getInt(4) == dataSize + 36
+                        && new String(contents, 36, 4, "US-ASCII").equals("data")
+                        && header.getInt(40) == dataSize;
+            } else {
+                matches &= contents.length == dataSize;
+            }
+            System.out.println(((format == GameBoyAdvanceAudioCapture.FORMAT_WAV) ? "WAV" : "Raw") + " capture of " + frames
+                    + " frames: " + contents.length + " bytes, " + (matches ? "match" : "MISMATCH"));
+            return matches;
+        } finally {
+            outputFile.delete();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.iodine.gba.audio;
+
+/**
+ * GameBoyAdvanceAudioTimeStretch - WSOLA tempo change for interleaved stereo samples
+ *
+ * Input is consumed at tempo times the output rate while pitch is kept. Each output
+ * sequence is cut from the input near its nominal position, at the offset whose start
+ * best matches the tail of the previous sequence, and the two are cross-faded.
+ * Not thread safe, owned by the audio writer thread.
+ */
+public class GameBoyAdvanceAudioTimeStretch {
+    // Lengths in stereo frames
+    public int sequenceFrames;
+    public int overlapFrames;
+    public int seekFrames;
+
+    // Pending input (interleaved)
+    public float[] inputBuffer;
+    public int inputLength;
+    public int pendingSkipFrames;
+    public double skipFraction;
+
+    // Tail of the previous sequence, cross-faded into the next one
+    public float[] overlapBuffer;
+    public float[] overlapMono;
+    public boolean primed;
+
+    // Output of the last process() call (interleaved)
+    public float[] outputBuffer;
+    public int outputLength;
+
+    public GameBoyAdvanceAudioTimeStretch(int sampleRate) {
+        // 40 ms sequences, 8 ms overlap, 15 ms seek window
+        sequenceFrames = Math.max(sampleRate / 25, 64);
+        overlapFrames = Math.max(sampleRate / 125, 16);
+        seekFrames = Math.max(sampleRate * 3 / 200, 16);
+        inputBuffer = new float[(sequenceFrames + seekFrames) << 2];
+        overlapBuffer = new float[overlapFrames << 1];
+        overlapMono = new float[overlapFrames];
+        outputBuffer = new float[sequenceFrames << 2];
+        reset();
+    }
+
+    public void reset() {
+        inputLength = 0;
+        pendingSkipFrames = 0;
+        skipFraction = 0;
+        outputLength = 0;
+        primed = false;
+    }
+
+    /**
+     * Feed samples at the given tempo. The stretched result is left in outputBuffer[0, outputLength).
+     */
+    public void process(float[] input, int length, double tempo) {
+        outputLength = 0;
+        appendInput(input, length);
+        int windowLength = (sequenceFrames + seekFrames) << 1;
+        int hopFrames = sequenceFrames - overlapFrames;
+        while (inputLength >= windowLength) {
+            int offset = primed ? seekBestOverlapPosition() : 0;
+            ensureOutputCapacity(outputLength + (hopFrames << 1));
+            writeOverlap(offset);
+            // Copy the body of the sequence
+            int bodyStart = (offset + overlapFrames) << 1;
+            int bodyLength = (sequenceFrames - (overlapFrames << 1)) << 1;
+            System.arraycopy(inputBuffer, bodyStart, outputBuffer, outputLength, bodyLength);
+            outputLength += bodyLength;
+            saveOverlap(offset + sequenceFrames - overlapFrames);
+            // Advance the input by the nominal hop scaled by tempo
+            skipFraction += tempo * hopFrames;
+            int skip = (int) skipFraction;
+            skipFraction -= skip;
+            consumeInput(skip);
+        }
+    }
+
+    /**
+     * Emit whatever is still held back, used when the stream ends.
+     */
+    public void flush() {
+        outputLength = 0;
+        if (primed) {
+            ensureOutputCapacity(overlapFrames << 1);
+            System.arraycopy(overlapBuffer, 0, outputBuffer, 0, overlapFrames << 1);
+            outputLength = overlapFrames << 1;
+        }
+        primed = false;
+        inputLength = 0;
+        pendingSkipFrames = 0;
+    }
+
+    public void appendInput(float[] input, int length) {
+        int position = 0;
+        if (pendingSkipFrames > 0) {
+            // Drop input that a previous hop already skipped past
+            int drop = Math.min(pendingSkipFrames << 1, length);
+            pendingSkipFrames -= drop >> 1;
+            position = drop;
+        }
+        int amount = length - position;
+        if (inputLength + amount > inputBuffer.length) {
+            float[] newBuffer = new float[Math.max(inputBuffer.length << 1, inputLength + amount)];
+            System.arraycopy(inputBuffer, 0, newBuffer, 0, inputLength);
+            inputBuffer = newBuffer;
+        }
+        System.arraycopy(input, position, inputBuffer, inputLength, amount);
+        inputLength += amount;
+    }
+
+    public void consumeInput(int frames) {
+        int amount = frames << 1;
+        if (amount >= inputLength) {
+            pendingSkipFrames += (amount - inputLength) >> 1;
+            inputLength = 0;
+        } else {
+            System.arraycopy(inputBuffer, amount, inputBuffer, 0, inputLength - amount);
+            inputLength -= amount;
+        }
+    }
+
+    /**
+     * Normalized cross-correlation of the mono mix against the saved tail,
+     * sampled every other frame to keep the search cheap.
+     */
+    public int seekBestOverlapPosition() {
+        float[] input = inputBuffer;
+        float[] reference = overlapMono;
+        int bestOffset = 0;
+        double bestScore = -Double.MAX_VALUE;
+        for (int offset = 0; offset < seekFrames; offset++) {
+            double correlation = 0;
+            double energy = 0;
+            for (int frame = 0, index = offset << 1; frame < overlapFrames; frame += 2, index += 4) {
+                float sample = input[index] + input[index | 1];
+                correlation += sample * reference[frame];
+                energy += sample * sample;
+            }
+            double score = correlation / Math.sqrt(energy + 1e-9);
+            if (score > bestScore) {
+                bestScore = score;
+                bestOffset = offset;
+            }
+        }
+        return bestOffset;
+    }
+
+    public void writeOverlap(int offset) {
+        int inputIndex = offset << 1;
+        int length = overlapFrames << 1;
+        if (primed) {
+            // Linear cross-fade from the previous tail into the new sequence
+            float step = 1.0f / overlapFrames;
+            for (int index = 0; index < length; index += 2) {
+                float fadeIn = (index >> 1) * step;
+                float fadeOut = 1.0f - fadeIn;
+                outputBuffer[outputLength + index] = overlapBuffer[index] * fadeOut + inputBuffer[inputIndex + index] * fadeIn;
+                outputBuffer[outputLength + index + 1] = overlapBuffer[index + 1] * fadeOut + inputBuffer[inputIndex + index + 1] * fadeIn;
+            }
+        } else {
+            System.arraycopy(inputBuffer, inputIndex, outputBuffer, outputLength, length);
+        }
+        outputLength += length;
+    }
+
+    public void saveOverlap(int frame) {
+        System.arraycopy(inputBuffer, frame << 1, overlapBuffer, 0, overlapFrames << 1);
+        for (int index = 0; index < overlapFrames; index++) {
+            overlapMono[index] = overlapBuffer[index << 1] + overlapBuffer[(index << 1) | 1];
+        }
+        primed = true;
+    }
+
+    public void ensureOutputCapacity(int length) {
+        if (length > outputBuffer.length) {
+            float[] newBuffer = new float[Math.max(outputBuffer.length << 1, length)];
+            System.arraycopy(outputBuffer, 0, newBuffer, 0, outputLength);
+            outputBuffer = newBuffer;
+        }
+    }
+}
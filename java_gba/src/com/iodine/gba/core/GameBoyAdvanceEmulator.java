@@ -1,5 +1,8 @@
 package com.iodine.gba.core;
 
+import com.iodine.gba.audio.GameBoyAdvanceAudioCapture;
+
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -17,6 +20,15 @@ public class GameBoyAdvanceEmulator {
     public int metricCollectionMinimum = 500;
     public boolean dynamicSpeed = false;
     public int overclockBlockLimit = 200;
+    public boolean audioTimeStretch = false;    // Keep native pitch when running faster than 1x
+    public double audioTimeStretchLimit = 8.0;  // Past this the remaining speed-up pitch shifts
+    public boolean offthreadGfx = false;        // Render on a worker thread, frame callbacks then arrive on that thread
+    public boolean parallelGfx = false;         // Render each frame at V-blank in bands across a ForkJoinPool
+    public int parallelGfxBands = 0;            // Band count for parallelGfx, 0 for one per processor
+    public boolean colorCorrection = false;     // Mimic the colors of the GBA's LCD
+    public boolean grayscale = false;
+    public boolean headlessGfx = false;         // No scanline rendering, frames only through requestFrame
+    public int frameSkipLimit = 0;              // Most frames skipped in a row when falling behind, 0 disables
 
     // State
     public int audioFound = 0;
@@ -27,6 +39,10 @@ public class GameBoyAdvanceEmulator {
     public int timerIntervalRate = 16;  // milliseconds
     public long lastTimestamp = 0;
     public boolean dynamicSpeedRefresh = false;
+    public double speedPercentage = 100;  // Last measured speed, 100 for full speed at 1x
+    public int frameSkip = 0;             // Frames skipped after each rendered one, adjusted from the speed metrics
+    // Set when the optional vector compositor kernels are installed but failed to load
+    public Throwable vectorCompositorError = com.iodine.gba.graphics.GameBoyAdvanceCompositor.vectorBackendError;
 
     // Timing
     public int clocksPerSecond;
@@ -38,17 +54,21 @@ public class GameBoyAdvanceEmulator {
 
     // Audio
     public int audioResamplerFirstPassFactor;
+    public int audioResamplerClocksPerSecond;
+    public double audioTimeStretchRatio = 1.0;
     public double audioDownSampleInputDivider;
     public int audioDestinationPosition;
     public int audioBufferContainAmount;
     public int audioBufferOverclockBlockAmount;
     public int audioBufferDynamicContainAmount;
     public float[] audioBuffer;
+    public GameBoyAdvanceAudioCapture audioCapture = null;
 
     // Callbacks
     public List<Runnable> startCallbacks = new ArrayList<>();
     public List<Runnable> endCallbacks = new ArrayList<>();
     public List<Runnable> terminationCallbacks = new ArrayList<>();
+    public com.iodine.gba.graphics.GraphicsFrameCallback graphicsFrameCallback;  // Handed to each new core
 
     // Core
     public GameBoyAdvanceIO IOCore;
@@ -199,6 +219,13 @@ public class GameBoyAdvanceEmulator {
         }
     }
 
+    public void setAudioTimeStretch(boolean enabled) {
+        if (enabled != audioTimeStretch) {
+            audioTimeStretch = enabled;
+            initializeAudioLogic();
+        }
+    }
+
     public void invalidateMetrics() {
         clockCyclesSinceStart = 0;
         metricStart = 0;
@@ -223,6 +250,8 @@ public class GameBoyAdvanceEmulator {
             long timeDiff = Math.max(lastTimestamp - metricStart, 1);
             if (timeDiff >= metricCollectionMinimum) {
                 // Calculate speed percentage and report if callback exists
+                speedPercentage = clockCyclesSinceStart * 100000.0 / timeDiff / 0x1000000;
+                adjustFrameSkip();
                 resetMetrics();
                 dynamicSpeedRefresh = true;
             } else {
@@ -234,6 +263,26 @@ public class GameBoyAdvanceEmulator {
         }
     }
 
+    /**
+     * With headlessGfx, render the frame in progress once it completes.
+     */
+    public void requestFrame() {
+        if (IOCore != null) {
+            IOCore.gfxRenderer.requestFrame();
+        }
+    }
+
+    public void adjustFrameSkip() {
+        // Skip one more frame per rendered one while behind, one less once caught up
+        double targetPercentage = emulatorSpeed * 100;
+        if (speedPercentage < targetPercentage * 0.95) {
+            frameSkip = Math.min(frameSkip + 1, frameSkipLimit);
+        } else if (speedPercentage >= targetPercentage * 0.99) {
+            frameSkip = Math.max(frameSkip - 1, 0);
+        }
+        frameSkip = Math.min(frameSkip, frameSkipLimit);
+    }
+
     public int initializeCore() {
         // Wrap up any old internal instance callbacks
         runTerminationJobs();
@@ -259,8 +308,12 @@ public class GameBoyAdvanceEmulator {
     }
 
     public void initializeAudioLogic() {
+        // When time stretching, resample against a slower clock so samples keep native pitch
+        // and the capture writer compresses them back to real time
+        audioTimeStretchRatio = audioTimeStretch ? Math.max(Math.min(emulatorSpeed, audioTimeStretchLimit), 1.0) : 1.0;
+        audioResamplerClocksPerSecond = (int) (clocksPerSecond / audioTimeStretchRatio);
         // Calculate the variables for the preliminary downsampler first
-        audioResamplerFirstPassFactor = Math.min(clocksPerSecond / 44100, 0x7FFFFFFF / 0x3FF);
+        audioResamplerFirstPassFactor = Math.min(audioResamplerClocksPerSecond / 44100, 0x7FFFFFFF / 0x3FF);
         audioDownSampleInputDivider = (2.0 / 0x3FF) / audioResamplerFirstPassFactor;
         initializeAudioBuffering();
         // Need to push the new resample factor
@@ -286,9 +339,29 @@ public class GameBoyAdvanceEmulator {
 
     public void submitAudioBuffer() {
         // Audio submission stub - will be connected to audio system
+        if (audioCapture != null && audioDestinationPosition > 0) {
+            // Only copies into the capture's preallocated blocks, the disk write happens off-thread
+            audioCapture.push(audioBuffer, audioDestinationPosition, audioTimeStretchRatio);
+        }
         audioDestinationPosition = 0;
     }
 
+    public int getAudioSampleRate() {
+        return audioResamplerClocksPerSecond / audioResamplerFirstPassFactor;
+    }
+
+    public void attachAudioCapture(GameBoyAdvanceAudioCapture capture) {
+        audioCapture = capture;
+    }
+
+    public void detachAudioCapture() throws IOException {
+        GameBoyAdvanceAudioCapture capture = audioCapture;
+        audioCapture = null;
+        if (capture != null) {
+            capture.close();
+        }
+    }
+
     public void audioUnderrunAdjustment() {
         CPUCyclesTotal = CPUCyclesPerIteration;
         // Audio underrun adjustment logic would go here
@@ -16,9 +16,6 @@ public class GameBoyAdvanceIO {
     public int cyclesToIterate;
     public int cyclesOveriteratedPreviously;
     public int accumulatedClocks;
-    public int graphicsClocks;
-    public int timerClocks;
-    public int serialClocks;
     public int nextEventClocks;
 
     // Settings
@@ -30,6 +27,7 @@ public class GameBoyAdvanceIO {
     public byte[] ROM;
 
     // Core Components
+    public GameBoyAdvanceScheduler scheduler;
     public GameBoyAdvanceMemory memory;
     public GameBoyAdvanceDMA dma;
     public GameBoyAdvanceDMA0 dmaChannel0;
@@ -60,17 +58,16 @@ public class GameBoyAdvanceIO {
         this.cyclesToIterate = 0;
         this.cyclesOveriteratedPreviously = 0;
         this.accumulatedClocks = 0;
-        this.graphicsClocks = 0;
-        this.timerClocks = 0;
-        this.serialClocks = 0;
         this.nextEventClocks = 0;
 
         this.SKIPBoot = skipBoot;
         this.coreExposed = exposed;
+        this.graphicsFrameCallback = exposed.graphicsFrameCallback;
         this.BIOS = bios;
         this.ROM = rom;
 
         // Initialize all components
+        this.scheduler = new GameBoyAdvanceScheduler();
         this.memory = new GameBoyAdvanceMemory(this);
         this.dma = new GameBoyAdvanceDMA(this);
         this.dmaChannel0 = new GameBoyAdvanceDMA0(this);
@@ -94,6 +91,8 @@ public class GameBoyAdvanceIO {
         int allowInit = 1;
         // Initialize each component
         if (memory.initialize() == 1) {
+            // Components schedule their first events during initialization
+            scheduler.initialize();
             dma.initialize();
             dmaChannel0.initialize();
             dmaChannel1.initialize();
@@ -236,7 +235,7 @@ public class GameBoyAdvanceIO {
                             handleDMA();
                             break;
                         case 0x9:
-                        case 0x11:
+                        case 0xB:
                             // Handle Halt State
                             handleHalt();
                             break;
@@ -274,6 +273,12 @@ public class GameBoyAdvanceIO {
         updateCoreSpill();
     }
 
+    public void updateCoreSpillRetain() {
+        // Keep the last prediction, just decrement it out, as it's still valid
+        nextEventClocks -= accumulatedClocks;
+        updateCoreClocking();
+    }
+
     public void updateCoreSpill() {
         // Invalidate & recompute new event times
         updateCoreClocking();
@@ -284,14 +289,25 @@ public class GameBoyAdvanceIO {
         int clocks = accumulatedClocks;
         // Decrement the clocks per iteration counter
         cyclesToIterate -= clocks;
-        // Clock all components
-        gfxState.addClocks(clocks - graphicsClocks);
-        timer.addClocks(clocks - timerClocks);
-        serial.addClocks(clocks - serialClocks);
         accumulatedClocks = 0;
-        graphicsClocks = 0;
-        timerClocks = 0;
-        serialClocks = 0;
+        // Advance the global clock and run the component events that came due
+        scheduler.advance(clocks);
+    }
+
+    public long getCurrentTime() {
+        // Global clock including the clocks not spilled yet
+        return scheduler.clock + accumulatedClocks;
+    }
+
+    public void updatePendingEvents() {
+        // Run any component event that came due within the clocks accumulated so far
+        if (scheduler.nextEventTime() <= getCurrentTime()) {
+            updateCoreSpill();
+        }
+    }
+
+    public void updateTimerClocking() {
+        updatePendingEvents();
     }
 
     public void updateCoreEventTime() {
@@ -341,7 +357,8 @@ public class GameBoyAdvanceIO {
 
     public void handleHalt() {
         if (irq.IRQMatch() == 0) {
-            // Clock up to next IRQ match or DMA
+            // Jump straight to the next IRQ an enabled source can raise, or DMA;
+            // the spill runs every component event in between as one batch
             updateCoreForce(cyclesUntilNextHALTEvent());
         } else {
             // Exit HALT promptly
@@ -350,30 +367,21 @@ public class GameBoyAdvanceIO {
     }
 
     public void handleStop() {
+        // Everything is clocked off until the keypad wakes us up
         // Update sound system to add silence to buffer
         sound.addClocks(getRemainingCycles());
         cyclesToIterate = 0;
     }
 
     public int cyclesUntilNextHALTEvent() {
-        // Find the clocks to the next HALT leave or DMA event
-        int haltClocks = irq.nextEventTime();
-        int dmaClocks = dma.nextEventTime();
-        return solveClosestTime(haltClocks, dmaClocks);
+        // Find the clocks to the next HALT leave or DMA event, net of clocks already accumulated
+        int haltClocks = Math.min(irq.nextEventTime(), dma.nextEventTime());
+        return Math.max(Math.min(haltClocks, getRemainingCycles() - accumulatedClocks), 0);
     }
 
     public int cyclesUntilNextEvent() {
-        // Find the clocks to the next IRQ or DMA event
-        int irqClocks = irq.nextIRQEventTime();
-        int dmaClocks = dma.nextEventTime();
-        return solveClosestTime(irqClocks, dmaClocks);
-    }
-
-    public int solveClosestTime(int clocks1, int clocks2) {
-        // Find the clocks closest to the next event
-        int clocks = getRemainingCycles();
-        clocks = Math.min(clocks, Math.min(clocks1, clocks2));
-        return clocks;
+        // Only the heap top matters, every component schedules its own events
+        return Math.min(getRemainingCycles(), scheduler.clocksUntilNextEvent());
     }
 
     // Flag manipulation methods
@@ -453,9 +461,6 @@ public class GameBoyAdvanceIO {
 
     public void updateGraphicsClocking() {
         // Update graphics clocking to ensure accurate timing
-        if (graphicsClocks > 0) {
-            gfxState.addClocks(graphicsClocks);
-            graphicsClocks = 0;
-        }
+        updatePendingEvents();
     }
 }
@@ -11,24 +11,132 @@ public class GameBoyAdvanceIRQ {
     }
 
     public void initialize() {
+        interruptEnable = 0;
+        interruptFlags = 0;
+        masterEnable = 0;
     }
 
     public int IRQMatch() {
-        return (interruptEnable & interruptFlags & masterEnable) != 0 ? 1 : 0;
+        // Used to exit HALT, IME does not gate this
+        return (interruptEnable & interruptFlags) != 0 ? 1 : 0;
     }
 
+    public void checkForIRQFire() {
+        // Tell the CPU core when the emulated hardware is triggering an IRQ
+        IOCore.cpu.triggerIRQ((interruptEnable & interruptFlags & masterEnable) != 0 ? 1 : 0);
+    }
+
+    /**
+     * Clocks from the current time until the earliest IRQ any enabled source can raise.
+     * Keypad and cartridge IRQs are host driven and only change between iterations.
+     */
     public int nextEventTime() {
-        return Integer.MAX_VALUE;
+        int clocks = Integer.MAX_VALUE;
+        GameBoyAdvanceTimer timer = IOCore.timer;
+        com.iodine.gba.graphics.GameBoyAdvanceGraphics gfxState = IOCore.gfxState;
+        if ((interruptEnable & 0x1) != 0) {
+            clocks = gfxState.nextVBlankIRQEventTime();
+        }
+        if ((interruptEnable & 0x2) != 0) {
+            clocks = Math.min(clocks, gfxState.nextHBlankIRQEventTime());
+        }
+        if ((interruptEnable & 0x4) != 0) {
+            clocks = Math.min(clocks, gfxState.nextVCounterIRQEventTime());
+        }
+        if ((interruptEnable & 0x8) != 0) {
+            clocks = Math.min(clocks, timer.nextTimer0IRQEventTime());
+        }
+        if ((interruptEnable & 0x10) != 0) {
+            clocks = Math.min(clocks, timer.nextTimer1IRQEventTime());
+        }
+        if ((interruptEnable & 0x20) != 0) {
+            clocks = Math.min(clocks, timer.nextTimer2IRQEventTime());
+        }
+        if ((interruptEnable & 0x40) != 0) {
+            clocks = Math.min(clocks, timer.nextTimer3IRQEventTime());
+        }
+        if ((interruptEnable & 0xF00) != 0) {
+            // DMA end of transfer IRQs
+            clocks = Math.min(clocks, IOCore.dma.nextEventTime());
+        }
+        return clocks;
     }
 
     public int nextIRQEventTime() {
-        return Integer.MAX_VALUE;
+        int clocks = Integer.MAX_VALUE;
+        // Checks IME here
+        if (masterEnable != 0) {
+            clocks = nextEventTime();
+        }
+        return clocks;
     }
 
     public void requestIRQ(int irqType) {
         interruptFlags |= irqType;
-        if (IRQMatch() != 0) {
-            IOCore.cpu.triggerIRQ(1);
-        }
+        checkForIRQFire();
+    }
+
+    public void writeIME(int data) {
+        IOCore.updateCoreClocking();
+        masterEnable = (data << 31) >> 31;
+        checkForIRQFire();
+        IOCore.updateCoreEventTime();
+    }
+
+    public void writeIE8_0(int data) {
+        writeIE16((interruptEnable & 0x3F00) | (data & 0xFF));
+    }
+
+    public void writeIE8_1(int data) {
+        writeIE16((interruptEnable & 0xFF) | ((data & 0x3F) << 8));
+    }
+
+    public void writeIE16(int data) {
+        IOCore.updateCoreClocking();
+        interruptEnable = data & 0x3FFF;
+        checkForIRQFire();
+        IOCore.updateCoreEventTime();
+    }
+
+    public void writeIF8_0(int data) {
+        writeIF16(data & 0xFF);
+    }
+
+    public void writeIF8_1(int data) {
+        writeIF16((data & 0xFF) << 8);
+    }
+
+    public void writeIF16(int data) {
+        IOCore.updateCoreClocking();
+        // Writing a 1 acknowledges the request
+        interruptFlags &= ~data;
+        checkForIRQFire();
+        IOCore.updateCoreEventTime();
+    }
+
+    public void writeIRQ32(int data) {
+        IOCore.updateCoreClocking();
+        interruptEnable = data & 0x3FFF;
+        interruptFlags &= ~(data >>> 16);
+        checkForIRQFire();
+        IOCore.updateCoreEventTime();
+    }
+
+    public int readIME() {
+        return masterEnable & 0x1;
+    }
+
+    public int readIE16() {
+        return interruptEnable;
+    }
+
+    public int readIF16() {
+        IOCore.updateCoreSpillRetain();
+        return interruptFlags;
+    }
+
+    public int readIRQ32() {
+        IOCore.updateCoreSpillRetain();
+        return (interruptFlags << 16) | interruptEnable;
     }
 }
@@ -3,6 +3,7 @@ package com.iodine.gba.core;
 public class GameBoyAdvanceJoyPad {
     public GameBoyAdvanceIO IOCore;
     public int keyStatus = 0x3FF;  // All keys released (bits set)
+    public int keyInterrupt = 0;   // KEYCNT
 
     /*
      * Button mapping:
@@ -23,21 +24,59 @@ public class GameBoyAdvanceJoyPad {
     }
 
     public void initialize() {
+        keyStatus = 0x3FF;
+        keyInterrupt = 0;
     }
 
     public void keyPress(int key) {
         if (key >= 0 && key <= 9) {
             keyStatus &= ~(1 << key);  // Clear bit (pressed)
+            checkForMatch();
         }
     }
 
     public void keyRelease(int key) {
         if (key >= 0 && key <= 9) {
             keyStatus |= (1 << key);  // Set bit (released)
+            checkForMatch();
+        }
+    }
+
+    public void checkForMatch() {
+        int selected = keyInterrupt & 0x3FF;
+        int pressed = ~keyStatus & selected;
+        boolean match;
+        if ((keyInterrupt & 0x8000) != 0) {
+            // Logical AND mode, every selected key must be held
+            match = selected != 0 && pressed == selected;
+        } else {
+            // Logical OR mode
+            match = pressed != 0;
+        }
+        if (match && (keyInterrupt & 0x4000) != 0) {
+            // Only a raised keypad IRQ wakes the system from STOP
+            IOCore.deflagStop();
+            IOCore.irq.requestIRQ(0x1000);
         }
     }
 
     public int readKeyStatus() {
         return keyStatus;
     }
+
+    public void writeKeyControl8_0(int data) {
+        keyInterrupt = (keyInterrupt & 0xC300) | (data & 0xFF);
+    }
+
+    public void writeKeyControl8_1(int data) {
+        keyInterrupt = (keyInterrupt & 0xFF) | ((data & 0xC3) << 8);
+    }
+
+    public void writeKeyControl16(int data) {
+        keyInterrupt = data & 0xC3FF;
+    }
+
+    public int readKeyControl16() {
+        return keyInterrupt;
+    }
 }
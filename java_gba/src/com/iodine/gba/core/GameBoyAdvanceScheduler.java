@@ -0,0 +1,162 @@
+package com.iodine.gba.core;
+
+/**
+ * GameBoyAdvanceScheduler - Global cycle clock and pending hardware events
+ *
+ * Each event type has at most one pending occurrence, kept in a small indexed
+ * binary min-heap of 64-bit timestamps. Components schedule and cancel their own
+ * events and reschedule from inside their handlers; the run loop only reads the
+ * heap top to know how long it can run before the next spill.
+ */
+public class GameBoyAdvanceScheduler {
+    // Event types, on equal timestamps the lower type is dispatched first
+    public static final int EVENT_LCD_RENDER = 0;     // Scanline finished drawing (clock 960)
+    public static final int EVENT_HBLANK = 1;         // HBlank start (clock 1006)
+    public static final int EVENT_LCD_LINE = 2;       // Next scanline (clock 1232), VBlank and VCount match happen here
+    public static final int EVENT_TIMER = 3;          // Earliest timer overflow
+    public static final int EVENT_DMA = 4;            // DMA trigger
+    public static final int EVENT_SERIAL = 5;         // Serial transfer completion
+    public static final int EVENT_AUDIO = 6;          // Audio sample clock
+    public static final int EVENT_COUNT = 7;
+
+    @FunctionalInterface
+    public interface EventHandler {
+        void handleEvent(long time);
+    }
+
+    // Global clock, in CPU cycles since power on
+    public long clock;
+
+    // Indexed min-heap of event types, ordered by eventTime
+    public long[] eventTime = new long[EVENT_COUNT];
+    public int[] heapIndex = new int[EVENT_COUNT];
+    public int[] heap = new int[EVENT_COUNT];
+    public int heapSize;
+    public EventHandler[] handlers = new EventHandler[EVENT_COUNT];
+
+    public void initialize() {
+        clock = 0;
+        heapSize = 0;
+        for (int type = 0; type < EVENT_COUNT; type++) {
+            eventTime[type] = Long.MAX_VALUE;
+            heapIndex[type] = -1;
+        }
+    }
+
+    public void registerHandler(int type, EventHandler handler) {
+        handlers[type] = handler;
+    }
+
+    /**
+     * Schedule or move the pending event of the given type.
+     */
+    public void schedule(int type, long time) {
+        int index = heapIndex[type];
+        eventTime[type] = time;
+        if (index < 0) {
+            index = heapSize++;
+            heap[index] = type;
+            heapIndex[type] = index;
+            siftUp(index);
+        } else {
+            siftUp(index);
+            siftDown(heapIndex[type]);
+        }
+    }
+
+    public void cancel(int type) {
+        int index = heapIndex[type];
+        if (index >= 0) {
+            removeAt(index);
+        }
+    }
+
+    public boolean isScheduled(int type) {
+        return heapIndex[type] >= 0;
+    }
+
+    public long nextEventTime() {
+        return heapSize > 0 ? eventTime[heap[0]] : Long.MAX_VALUE;
+    }
+
+    /**
+     * Clocks from the current clock to the earliest pending event, clamped to int range.
+     */
+    public int clocksUntilNextEvent() {
+        return (int) Math.min(Math.max(nextEventTime() - clock, 0), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Advance the clock and run every event that is due, in time order.
+     */
+    public void advance(int clocks) {
+        clock += clocks;
+        while (heapSize > 0) {
+            int type = heap[0];
+            long time = eventTime[type];
+            if (time > clock) {
+                break;
+            }
+            removeAt(0);
+            handlers[type].handleEvent(time);
+        }
+    }
+
+    public void removeAt(int index) {
+        int type = heap[index];
+        heapIndex[type] = -1;
+        eventTime[type] = Long.MAX_VALUE;
+        int last = --heapSize;
+        if (index != last) {
+            int moved = heap[last];
+            heap[index] = moved;
+            heapIndex[moved] = index;
+            siftUp(index);
+            siftDown(heapIndex[moved]);
+        }
+    }
+
+    public boolean isBefore(int typeA, int typeB) {
+        long timeA = eventTime[typeA];
+        long timeB = eventTime[typeB];
+        return timeA < timeB || (timeA == timeB && typeA < typeB);
+    }
+
+    public void siftUp(int index) {
+        int type = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >> 1;
+            int parentType = heap[parent];
+            if (!isBefore(type, parentType)) {
+                break;
+            }
+            heap[index] = parentType;
+            heapIndex[parentType] = index;
+            index = parent;
+        }
+        heap[index] = type;
+        heapIndex[type] = index;
+    }
+
+    public void siftDown(int index) {
+        int type = heap[index];
+        while (true) {
+            int child = (index << 1) + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && isBefore(heap[child + 1], heap[child])) {
+                child++;
+            }
+            int childType = heap[child];
+            if (!isBefore(childType, type)) {
+                break;
+            }
+            heap[index] = childType;
+            heapIndex[childType] = index;
+            index = child;
+        }
+        heap[index] = type;
+        heapIndex[type] = index;
+    }
+}
@@ -1,16 +1,273 @@
 package com.iodine.gba.core;
 
+/**
+ * GameBoyAdvanceTimer - The four hardware timers (converted from Timer.js)
+ *
+ * Timers are never ticked per clock. Each enabled timer stores the timestamp and counter
+ * value it was last rebased at, and its counter and overflow times are derived from the
+ * global clock: direct timers from the prescaler, count-up timers from the overflow count
+ * of the timer below them. The earliest overflow is kept as a scheduler event.
+ */
 public class GameBoyAdvanceTimer {
+    public static final int[] prescalarLookup = {0, 0x6, 0x8, 0xA};
+
     public GameBoyAdvanceIO IOCore;
+    public GameBoyAdvanceScheduler scheduler;
+
+    // Per-timer register state
+    public int[] timerReload = new int[4];
+    public int[] timerControl = new int[4];
+    public boolean[] timerEnabled = new boolean[4];
+    public boolean[] timerIRQ = new boolean[4];
+    public boolean[] timerCountUp = new boolean[4];
+    public int[] timerPrescalarShifted = new int[4];
+
+    // Analytic counter state, counter equals timerBaseCounter at timerBaseTime
+    public long[] timerBaseTime = new long[4];
+    public int[] timerBaseCounter = new int[4];
+    public long[] timerBaseSourceOverflows = new long[4];  // Source overflow count at rebase (count-up only)
+    public long[] timerNextOverflowTime = new long[4];
+    public long nextOverflowTime;
+    public int[] commitCounters = new int[4];
+    public long[] commitPrecounters = new long[4];
 
     public GameBoyAdvanceTimer(GameBoyAdvanceIO ioCore) {
         this.IOCore = ioCore;
     }
 
     public void initialize() {
+        scheduler = IOCore.scheduler;
+        scheduler.registerHandler(GameBoyAdvanceScheduler.EVENT_TIMER, this::processOverflows);
+        for (int timer = 0; timer < 4; timer++) {
+            timerReload[timer] = 0;
+            timerControl[timer] = 0;
+            timerEnabled[timer] = false;
+            timerIRQ[timer] = false;
+            timerCountUp[timer] = false;
+            timerPrescalarShifted[timer] = 0;
+            timerBaseTime[timer] = 0;
+            timerBaseCounter[timer] = 0;
+            timerBaseSourceOverflows[timer] = 0;
+            timerNextOverflowTime[timer] = Long.MAX_VALUE;
+        }
+        nextOverflowTime = Long.MAX_VALUE;
+    }
+
+    public void processOverflows(long time) {
+        for (int timer = 0; timer < 4; timer++) {
+            if (timerNextOverflowTime[timer] <= time) {
+                // Overflows since the last check collapse into a single IRQ request
+                if (timerIRQ[timer]) {
+                    IOCore.irq.requestIRQ(0x8 << timer);
+                }
+            }
+        }
+        updateNextOverflowTimes(time);
+    }
+
+    public void updateNextOverflowTimes(long currentTime) {
+        nextOverflowTime = Long.MAX_VALUE;
+        for (int timer = 0; timer < 4; timer++) {
+            long time = Long.MAX_VALUE;
+            if (timerEnabled[timer]) {
+                time = overflowTime(timer, overflowCount(timer, currentTime) + 1);
+            }
+            timerNextOverflowTime[timer] = time;
+            nextOverflowTime = Math.min(nextOverflowTime, time);
+        }
+        if (nextOverflowTime != Long.MAX_VALUE) {
+            scheduler.schedule(GameBoyAdvanceScheduler.EVENT_TIMER, nextOverflowTime);
+        } else {
+            scheduler.cancel(GameBoyAdvanceScheduler.EVENT_TIMER);
+        }
+    }
+
+    public boolean isCountUp(int timer) {
+        return timer > 0 && timerCountUp[timer];
+    }
+
+    /**
+     * Counter ticks the timer has received since its last rebase.
+     */
+    public long ticksAt(int timer, long time) {
+        if (isCountUp(timer)) {
+            return overflowCount(timer - 1, time) - timerBaseSourceOverflows[timer];
+        }
+        return (time - timerBaseTime[timer]) >> timerPrescalarShifted[timer];
+    }
+
+    /**
+     * Number of overflows of the timer since its last rebase, up to and including time.
+     */
+    public long overflowCount(int timer, long time) {
+        if (!timerEnabled[timer]) {
+            return 0;
+        }
+        long ticks = ticksAt(timer, time);
+        long firstOverflow = 0x10000 - timerBaseCounter[timer];
+        if (ticks < firstOverflow) {
+            return 0;
+        }
+        return 1 + (ticks - firstOverflow) / (0x10000 - timerReload[timer]);
+    }
+
+    /**
+     * Timestamp of the n-th overflow (1-based) since the last rebase.
+     */
+    public long overflowTime(int timer, long overflows) {
+        if (!timerEnabled[timer]) {
+            return Long.MAX_VALUE;
+        }
+        long ticks = (0x10000 - timerBaseCounter[timer]) + (overflows - 1) * (0x10000 - timerReload[timer]);
+        if (isCountUp(timer)) {
+            return overflowTime(timer - 1, timerBaseSourceOverflows[timer] + ticks);
+        }
+        if (ticks >= (Long.MAX_VALUE >> 11)) {
+            return Long.MAX_VALUE;
+        }
+        return timerBaseTime[timer] + (ticks << timerPrescalarShifted[timer]);
+    }
+
+    public int counterAt(int timer, long time) {
+        if (!timerEnabled[timer]) {
+            return timerBaseCounter[timer];
+        }
+        long ticks = ticksAt(timer, time);
+        long firstOverflow = 0x10000 - timerBaseCounter[timer];
+        if (ticks < firstOverflow) {
+            return (int) (timerBaseCounter[timer] + ticks);
+        }
+        return (int) (timerReload[timer] + (ticks - firstOverflow) % (0x10000 - timerReload[timer]));
+    }
+
+    /**
+     * Fold the elapsed time into the base values of a timer and the count-up timers above it,
+     * so the register write that follows applies from the given clock onward.
+     */
+    public void commitTimers(int timer, long clock) {
+        // Capture all counters before any base moves, count-up timers depend on the one below
+        int[] counters = commitCounters;
+        long[] precounters = commitPrecounters;
+        for (int index = timer; index < 4; index++) {
+            counters[index] = counterAt(index, clock);
+            precounters[index] = 0;
+            if (timerEnabled[index] && !isCountUp(index)) {
+                precounters[index] = (clock - timerBaseTime[index]) & ((1 << timerPrescalarShifted[index]) - 1);
+            }
+        }
+        for (int index = timer; index < 4; index++) {
+            timerBaseCounter[index] = counters[index];
+            // Keep the prescaler phase across rebases like the original precounter
+            timerBaseTime[index] = clock - precounters[index];
+        }
+        // Timers above are rebased along with their source, so they count its overflows from zero
+        timerBaseSourceOverflows[timer] = timer > 0 ? overflowCount(timer - 1, clock) : 0;
+        for (int index = timer + 1; index < 4; index++) {
+            timerBaseSourceOverflows[index] = 0;
+        }
+    }
+
+    public void writeReload(int timer, int data) {
+        // Deliver overflows that came due before this write
+        IOCore.updateTimerClocking();
+        IOCore.sound.audioJIT();
+        long clock = IOCore.getCurrentTime();
+        commitTimers(timer, clock);
+        timerReload[timer] = data & 0xFFFF;
+        updateNextOverflowTimes(clock);
+        IOCore.updateCoreEventTime();
+    }
+
+    public void writeControl(int timer, int data) {
+        IOCore.updateTimerClocking();
+        IOCore.sound.audioJIT();
+        long clock = IOCore.getCurrentTime();
+        commitTimers(timer, clock);
+        timerControl[timer] = data & 0xFF;
+        if ((data & 0x80) != 0) {
+            if (!timerEnabled[timer]) {
+                timerBaseCounter[timer] = timerReload[timer];
+                timerBaseTime[timer] = clock;
+                timerEnabled[timer] = true;
+            }
+        } else {
+            timerEnabled[timer] = false;
+        }
+        timerIRQ[timer] = (data & 0x40) != 0;
+        timerCountUp[timer] = (data & 0x4) != 0;
+        timerPrescalarShifted[timer] = prescalarLookup[data & 0x03];
+        updateNextOverflowTimes(clock);
+        IOCore.updateCoreEventTime();
+    }
+
+    public void writeTMCNT8_0(int timer, int data) {
+        writeReload(timer, (timerReload[timer] & 0xFF00) | (data & 0xFF));
+    }
+
+    public void writeTMCNT8_1(int timer, int data) {
+        writeReload(timer, (timerReload[timer] & 0xFF) | ((data & 0xFF) << 8));
+    }
+
+    public void writeTMCNT8_2(int timer, int data) {
+        writeControl(timer, data);
+    }
+
+    public void writeTMCNT16(int timer, int data) {
+        writeReload(timer, data);
+    }
+
+    public void writeTMCNT32(int timer, int data) {
+        // Reload is latched before the enable edge loads it into the counter
+        IOCore.updateTimerClocking();
+        commitTimers(timer, IOCore.getCurrentTime());
+        timerReload[timer] = data & 0xFFFF;
+        writeControl(timer, data >> 16);
+    }
+
+    public int readTMCNT8_0(int timer) {
+        return counterAt(timer, IOCore.getCurrentTime()) & 0xFF;
+    }
+
+    public int readTMCNT8_1(int timer) {
+        return (counterAt(timer, IOCore.getCurrentTime()) & 0xFF00) >> 8;
+    }
+
+    public int readTMCNT8_2(int timer) {
+        return timerControl[timer] & 0xFF;
+    }
+
+    public int readTMCNT16(int timer) {
+        return counterAt(timer, IOCore.getCurrentTime());
+    }
+
+    public int readTMCNT32(int timer) {
+        return ((timerControl[timer] & 0xFF) << 16) | counterAt(timer, IOCore.getCurrentTime());
+    }
+
+    /**
+     * Clocks until the timer's next overflow, relative to the current time.
+     */
+    public int nextTimerIRQEventTime(int timer) {
+        int clocks = Integer.MAX_VALUE;
+        if (timerEnabled[timer] && timerIRQ[timer]) {
+            clocks = (int) Math.min(Math.max(timerNextOverflowTime[timer] - IOCore.getCurrentTime(), 0), Integer.MAX_VALUE);
+        }
+        return clocks;
+    }
+
+    public int nextTimer0IRQEventTime() {
+        return nextTimerIRQEventTime(0);
+    }
+
+    public int nextTimer1IRQEventTime() {
+        return nextTimerIRQEventTime(1);
+    }
+
+    public int nextTimer2IRQEventTime() {
+        return nextTimerIRQEventTime(2);
     }
 
-    public void addClocks(int clocks) {
-        // Simplified timer logic
+    public int nextTimer3IRQEventTime() {
+        return nextTimerIRQEventTime(3);
     }
 }
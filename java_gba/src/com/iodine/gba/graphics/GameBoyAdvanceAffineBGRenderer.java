@@ -11,6 +11,9 @@ package com.iodine.gba.graphics;
  *   [dy  dmy]   (PC PD)
  *
  * Reference point (BGReferenceX, BGReferenceY) defines the origin for the transformation.
+ *
+ * Tiled lines are classified by their per pixel step (PA, PC) so the matrix renderer can run
+ * a loop made for it: identity, pure horizontal scale, quarter turn or general.
  */
 public class GameBoyAdvanceAffineBGRenderer {
     public GameBoyAdvanceRenderer gfx;
@@ -37,6 +40,12 @@ public class GameBoyAdvanceAffineBGRenderer {
     public int pb;  // Current X position (starts at BGReferenceX)
     public int pd;  // Current Y position (starts at BGReferenceY)
 
+    // Kinds of line transforms, see classifyLine
+    public static final int LINE_IDENTITY = 0;       // One texel per pixel along a row
+    public static final int LINE_SCALE = 1;          // Stepping along a row
+    public static final int LINE_AXIS_ALIGNED = 2;   // Stepping along a column
+    public static final int LINE_GENERAL = 3;
+
     // Rendering state
     public int[] buffer;
     public int priorityFlag;
@@ -80,26 +89,7 @@ public class GameBoyAdvanceAffineBGRenderer {
      * Used in modes 1-2.
      */
     public void renderScanLine2M(int line) {
-        int x = pb;
-        int y = pd;
-
-        // Apply mosaic correction if enabled
-        if (doMosaic != 0) {
-            int mosaicY = mosaicRenderer.getMosaicYOffset(line);
-            x -= BGdmx * mosaicY;
-            y -= BGdmy * mosaicY;
-        }
-
-        // Render each pixel using affine transformation
-        for (int position = 0; position < 240; position++, x += BGdx, y += BGdy) {
-            // Fetch pixel from matrix renderer (fixed point >> 8 to get integer coords)
-            buffer[offset + position] = priorityFlag | bg2MatrixRenderer.getPixel(x >> 8, y >> 8);
-        }
-
-        // Apply horizontal mosaic if enabled
-        if (doMosaic != 0) {
-            mosaicRenderer.renderMosaicHorizontal(offset);
-        }
+        renderMatrixLine(bg2MatrixRenderer, line);
     }
 
     /**
@@ -107,20 +97,24 @@ public class GameBoyAdvanceAffineBGRenderer {
      * Used in mode 2.
      */
     public void renderScanLine3M(int line) {
+        renderMatrixLine(bg3MatrixRenderer, line);
+    }
+
+    /**
+     * Render a tiled scanline through the given matrix renderer.
+     */
+    public void renderMatrixLine(GameBoyAdvanceBGMatrixRenderer matrixRenderer, int line) {
         int x = pb;
         int y = pd;
 
         // Apply mosaic correction if enabled
         if (doMosaic != 0) {
-            int mosaicY = mosaicRenderer.getMosaicYOffset(line);
+            int mosaicY = mosaicRenderer.BGMosaicYOffset[line];
             x -= BGdmx * mosaicY;
             y -= BGdmy * mosaicY;
         }
 
-        // Render each pixel using affine transformation
-        for (int position = 0; position < 240; position++, x += BGdx, y += BGdy) {
-            buffer[offset + position] = priorityFlag | bg3MatrixRenderer.getPixel(x >> 8, y >> 8);
-        }
+        matrixRenderer.renderLine(buffer, offset, priorityFlag, classifyLine(), x, y, BGdx, BGdy);
 
         // Apply horizontal mosaic if enabled
         if (doMosaic != 0) {
@@ -128,6 +122,16 @@ public class GameBoyAdvanceAffineBGRenderer {
         }
     }
 
+    /**
+     * Kind of transform the current PA and PC give a line.
+     */
+    public int classifyLine() {
+        if (BGdy == 0) {
+            return (BGdx == 0x100) ? LINE_IDENTITY : LINE_SCALE;
+        }
+        return (BGdx == 0) ? LINE_AXIS_ALIGNED : LINE_GENERAL;
+    }
+
     /**
      * Render scanline for BG2 using framebuffer mode (bitmap).
      * Used in modes 3-5.
@@ -138,14 +142,19 @@ public class GameBoyAdvanceAffineBGRenderer {
 
         // Apply mosaic correction if enabled
         if (doMosaic != 0) {
-            int mosaicY = mosaicRenderer.getMosaicYOffset(line);
+            int mosaicY = mosaicRenderer.BGMosaicYOffset[line];
             x -= BGdmx * mosaicY;
             y -= BGdmy * mosaicY;
         }
 
-        // Render each pixel using affine transformation
-        for (int position = 0; position < 240; position++, x += BGdx, y += BGdy) {
-            buffer[offset + position] = priorityFlag | bg2FrameBufferRenderer.getPixel(x >> 8, y >> 8);
+        if (classifyLine() == LINE_IDENTITY) {
+            // Untransformed, one bitmap row in bulk
+            bg2FrameBufferRenderer.renderIdentityLine(buffer, offset, priorityFlag, x >> 8, y >> 8);
+        } else {
+            // Render each pixel using affine transformation
+            for (int position = 0; position < 240; position++, x += BGdx, y += BGdy) {
+                buffer[offset + position] = priorityFlag | bg2FrameBufferRenderer.getPixel(x >> 8, y >> 8);
+            }
         }
 
         // Apply horizontal mosaic if enabled
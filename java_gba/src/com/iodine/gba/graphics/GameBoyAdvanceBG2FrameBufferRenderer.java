@@ -1,5 +1,7 @@
 package com.iodine.gba.graphics;
 
+import java.util.Arrays;
+
 /**
  * GameBoyAdvanceBG2FrameBufferRenderer - Bitmap mode renderer (converted from BG2FrameBuffer.js)
  * Copyright (C) 2012-2016 Grant Galitz
@@ -8,6 +10,8 @@ package com.iodine.gba.graphics;
  * - Mode 3: 240x160, 16-bit BGR555 color, single framebuffer
  * - Mode 4: 240x160, 8-bit paletted, double-buffered
  * - Mode 5: 160x128, 16-bit BGR555 color, double-buffered
+ *
+ * Untransformed lines are rendered in bulk from one VRAM row; other lines fetch per pixel.
  */
 public class GameBoyAdvanceBG2FrameBufferRenderer {
     public GameBoyAdvanceRenderer gfx;
@@ -20,6 +24,9 @@ public class GameBoyAdvanceBG2FrameBufferRenderer {
     // Frame selection for double-buffered modes (mode 4 and 5)
     public int frameSelect;
 
+    // Selected bitmap mode (3, 4 or 5)
+    public int mode;
+
     // Current pixel fetch function (changes based on mode)
     private PixelFetcher fetchPixel;
 
@@ -40,6 +47,7 @@ public class GameBoyAdvanceBG2FrameBufferRenderer {
         VRAM16 = gfx.VRAM16;
         // Default to mode 3
         fetchPixel = this::fetchMode3Pixel;
+        mode = 3;
         frameSelect = 0;
     }
 
@@ -49,6 +57,7 @@ public class GameBoyAdvanceBG2FrameBufferRenderer {
      * @param mode Bitmap mode (3, 4, or 5)
      */
     public void selectMode(int mode) {
+        this.mode = mode;
         switch (mode) {
             case 3:
                 fetchPixel = this::fetchMode3Pixel;
@@ -73,6 +82,56 @@ public class GameBoyAdvanceBG2FrameBufferRenderer {
         return fetchPixel.fetch(x, y);
     }
 
+    /**
+     * Render a line whose texels are one per pixel along row y, starting at column x, into
+     * buffer[offset, offset + 240). Only the span inside the bitmap is read, the rest is
+     * transparent.
+     */
+    public void renderIdentityLine(int[] buffer, int offset, int priorityFlag, int x, int y) {
+        int width = (mode == 5) ? 160 : 240;
+        int height = (mode == 5) ? 128 : 160;
+        int start = 0;
+        int end = 0;
+        if (y >= 0 && y < height) {
+            start = Math.min(Math.max(-x, 0), 240);
+            end = Math.max(Math.min(width - x, 240), start);
+        }
+        // Out of range, output transparency
+        Arrays.fill(buffer, offset, offset + start, priorityFlag | 0x3800000);
+        Arrays.fill(buffer, offset + end, offset + 240, priorityFlag | 0x3800000);
+        switch (mode) {
+            case 3:
+                renderDirectColorRow(buffer, offset + start, offset + end, priorityFlag, (y * 240 + x + start) << 1);
+                break;
+            case 4:
+                renderMode4Row(buffer, offset + start, offset + end, priorityFlag, frameSelect + y * 240 + x + start);
+                break;
+            default:
+                renderDirectColorRow(buffer, offset + start, offset + end, priorityFlag, frameSelect + ((y * 160 + x + start) << 1));
+        }
+    }
+
+    /**
+     * Mode 3/5 row copy, 15-bit colors from consecutive VRAM halfwords.
+     */
+    private void renderDirectColorRow(int[] buffer, int position, int end, int priorityFlag, int address) {
+        byte[] VRAM = this.VRAM;
+        for (; position < end; position++, address += 2) {
+            buffer[position] = priorityFlag | (VRAM[address] & 0xFF) | ((VRAM[address | 1] & 0x7F) << 8);
+        }
+    }
+
+    /**
+     * Mode 4 row, palette lookups over consecutive VRAM bytes.
+     */
+    private void renderMode4Row(int[] buffer, int position, int end, int priorityFlag, int address) {
+        byte[] VRAM = this.VRAM;
+        int[] palette = this.palette;
+        for (; position < end; position++, address++) {
+            buffer[position] = priorityFlag | palette[VRAM[address] & 0xFF];
+        }
+    }
+
     /**
      * Mode 3: 240x160, 16-bit direct color.
      * Single framebuffer at VRAM offset 0.
@@ -139,9 +198,9 @@ public class GameBoyAdvanceBG2FrameBufferRenderer {
      * @param value Frame select bit (shifted and masked)
      */
     public void writeFrameSelect(int value) {
-        // Extract bit 31 (which is bit 4 of DISPCNT shifted left 27 positions)
-        // and convert to framebuffer offset: 0x0000 or 0xA000
-        int frameSelectBit = value >>> 31;
+        // Spread bit 31 (which is bit 4 of DISPCNT shifted left 27 positions) over the word
+        // and mask it to the framebuffer offset: 0x0000 or 0xA000
+        int frameSelectBit = value >> 31;
         frameSelect = frameSelectBit & 0xA000;
     }
 }
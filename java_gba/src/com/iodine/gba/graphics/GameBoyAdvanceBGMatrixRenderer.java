@@ -1,5 +1,7 @@
 package com.iodine.gba.graphics;
 
+import java.util.Arrays;
+
 /**
  * GameBoyAdvanceBGMatrixRenderer - Matrix background renderer (converted from BGMatrix.js)
  * Copyright (C) 2012-2015 Grant Galitz
@@ -7,6 +9,11 @@ package com.iodine.gba.graphics;
  * Handles tile-based rendering for affine backgrounds (modes 1-2).
  * Affine backgrounds use a tile map with 8bpp tiles and can be rotated/scaled.
  * Supports configurable screen sizes and overflow modes.
+ *
+ * Lines are rendered whole, by a loop picked from the kind of transform the affine renderer
+ * classified the line as. Without overflow the line is first clipped to the span whose
+ * texture coordinates are inside the map, so no loop checks bounds per pixel; with overflow
+ * the coordinates are simply masked.
  */
 public class GameBoyAdvanceBGMatrixRenderer {
     public GameBoyAdvanceRenderer gfx;
@@ -18,18 +25,11 @@ public class GameBoyAdvanceBGMatrixRenderer {
     // Screen configuration
     public int mapSize;             // Tile map dimensions (16, 32, 64, or 128 tiles)
     public int mapSizeComparer;     // Mask for pixel coordinates (map size in pixels - 1)
+    public int mapSizeShift;        // log2 of mapSize
     public int BGScreenBaseBlock;   // Tile map base address in VRAM
     public int BGCharacterBaseBlock; // Tile data base address in VRAM
     public int BGDisplayOverflow;   // Overflow mode (0=clamp, 1=wrap)
 
-    // Current pixel fetch function (changes based on overflow mode)
-    private PixelFetcher fetchPixel;
-
-    @FunctionalInterface
-    private interface PixelFetcher {
-        int fetch(int x, int y);
-    }
-
     public GameBoyAdvanceBGMatrixRenderer(GameBoyAdvanceRenderer gfx) {
         this.gfx = gfx;
     }
@@ -54,7 +54,7 @@ public class GameBoyAdvanceBGMatrixRenderer {
      */
     private int fetchTile(int x, int y) {
         // Compute address for tile VRAM:  tileNumber = x + y * mapSize
-        int tileNumber = x + y * mapSize;
+        int tileNumber = x + (y << mapSizeShift);
         return VRAM[(tileNumber + BGScreenBaseBlock) & 0xFFFF] & 0xFF;
     }
 
@@ -77,46 +77,100 @@ public class GameBoyAdvanceBGMatrixRenderer {
     }
 
     /**
-     * Fetch a pixel with overflow (wrapping).
-     * Coordinates wrap around at the map boundaries.
+     * Render one line into buffer[offset, offset + 240). Texture coordinates of the line are
+     * x + position * dx and y + position * dy in 8.8 fixed point.
      *
-     * @param x Pixel X coordinate
-     * @param y Pixel Y coordinate
-     * @return Palette color
+     * @param lineKind One of the GameBoyAdvanceAffineBGRenderer.LINE_ kinds for dx and dy
      */
-    private int fetchPixelOverflow(int x, int y) {
-        // Wrap coordinates using mapSizeComparer mask
-        int address = computeScreenAddress(x & mapSizeComparer, y & mapSizeComparer);
-        return palette[VRAM[address & 0xFFFF] & 0xFF];
+    public void renderLine(int[] buffer, int offset, int priorityFlag, int lineKind, int x, int y, int dx, int dy) {
+        int start = 0;
+        int end = 240;
+        if (BGDisplayOverflow == 0) {
+            // Out-of-bounds with no overflow allowed is transparent
+            int limit = (mapSizeComparer + 1) << 8;
+            start = Math.max(Math.max(start, GameBoyAdvanceOBJRenderer.clipStart(x, dx, limit)), GameBoyAdvanceOBJRenderer.clipStart(y, dy, limit));
+            end = Math.min(Math.min(end, GameBoyAdvanceOBJRenderer.clipEnd(x, dx, limit)), GameBoyAdvanceOBJRenderer.clipEnd(y, dy, limit));
+            start = Math.min(start, 240);
+            end = Math.max(end, start);
+            Arrays.fill(buffer, offset, offset + start, priorityFlag | 0x3800000);
+            Arrays.fill(buffer, offset + end, offset + 240, priorityFlag | 0x3800000);
+            x += dx * start;
+            y += dy * start;
+        }
+        switch (lineKind) {
+            case GameBoyAdvanceAffineBGRenderer.LINE_IDENTITY:
+                renderIdentityLine(buffer, offset + start, offset + end, priorityFlag, x >> 8, y >> 8);
+                break;
+            case GameBoyAdvanceAffineBGRenderer.LINE_SCALE:
+                renderScaledLine(buffer, offset + start, offset + end, priorityFlag, x, y >> 8, dx);
+                break;
+            case GameBoyAdvanceAffineBGRenderer.LINE_AXIS_ALIGNED:
+                renderAxisAlignedLine(buffer, offset + start, offset + end, priorityFlag, x >> 8, y, dy);
+                break;
+            default:
+                renderGeneralLine(buffer, offset + start, offset + end, priorityFlag, x, y, dx, dy);
+        }
     }
 
     /**
-     * Fetch a pixel without overflow (clamping).
-     * Out-of-bounds coordinates return transparency.
-     *
-     * @param x Pixel X coordinate
-     * @param y Pixel Y coordinate
-     * @return Palette color or transparency (0x3800000)
+     * One texel per pixel along a map row, each tile row is fetched once and copied.
      */
-    private int fetchPixelNoOverflow(int x, int y) {
-        // Check if coordinates are in bounds
-        if (x != (x & mapSizeComparer) || y != (y & mapSizeComparer)) {
-            // Out of bounds with no overflow allowed
-            return 0x3800000;
+    private void renderIdentityLine(int[] buffer, int position, int end, int priorityFlag, int x, int y) {
+        y &= mapSizeComparer;
+        int rowAddress = BGCharacterBaseBlock + ((y & 0x7) << 3);
+        while (position < end) {
+            x &= mapSizeComparer;
+            int address = rowAddress + (fetchTile(x >> 3, y >> 3) << 6);
+            int tileEnd = Math.min(position + 8 - (x & 0x7), end);
+            for (int tileX = x & 0x7; position < tileEnd; position++, tileX++) {
+                buffer[position] = priorityFlag | palette[VRAM[(address + tileX) & 0xFFFF] & 0xFF];
+            }
+            x = (x | 0x7) + 1;
         }
-        int address = computeScreenAddress(x, y);
-        return palette[VRAM[address & 0xFFFF] & 0xFF];
     }
 
     /**
-     * Get a pixel using the current overflow mode.
-     *
-     * @param x Pixel X coordinate
-     * @param y Pixel Y coordinate
-     * @return Pixel value
+     * Texels stepped along a map row, the tile is re-fetched only when the step crosses one.
+     */
+    private void renderScaledLine(int[] buffer, int position, int end, int priorityFlag, int x, int y, int dx) {
+        y &= mapSizeComparer;
+        int rowAddress = BGCharacterBaseBlock + ((y & 0x7) << 3);
+        int lastTileX = -1;
+        int address = 0;
+        for (; position < end; position++, x += dx) {
+            int texelX = (x >> 8) & mapSizeComparer;
+            if ((texelX >> 3) != lastTileX) {
+                lastTileX = texelX >> 3;
+                address = rowAddress + (fetchTile(lastTileX, y >> 3) << 6);
+            }
+            buffer[position] = priorityFlag | palette[VRAM[(address + (texelX & 0x7)) & 0xFFFF] & 0xFF];
+        }
+    }
+
+    /**
+     * Texels stepped along a map column (quarter turn rotations), the tile is re-fetched only
+     * when the step crosses one.
      */
-    public int getPixel(int x, int y) {
-        return fetchPixel.fetch(x, y);
+    private void renderAxisAlignedLine(int[] buffer, int position, int end, int priorityFlag, int x, int y, int dy) {
+        x &= mapSizeComparer;
+        int columnAddress = BGCharacterBaseBlock + (x & 0x7);
+        int lastTileY = -1;
+        int address = 0;
+        for (; position < end; position++, y += dy) {
+            int texelY = (y >> 8) & mapSizeComparer;
+            if ((texelY >> 3) != lastTileY) {
+                lastTileY = texelY >> 3;
+                address = columnAddress + (fetchTile(x >> 3, lastTileY) << 6);
+            }
+            buffer[position] = priorityFlag | palette[VRAM[(address + ((texelY & 0x7) << 3)) & 0xFFFF] & 0xFF];
+        }
+    }
+
+    private void renderGeneralLine(int[] buffer, int position, int end, int priorityFlag, int x, int y, int dx, int dy) {
+        for (; position < end; position++, x += dx, y += dy) {
+            int address = computeScreenAddress((x >> 8) & mapSizeComparer, (y >> 8) & mapSizeComparer);
+            buffer[position] = priorityFlag | palette[VRAM[address & 0xFFFF] & 0xFF];
+        }
     }
 
     // Configuration methods called from renderer when registers are written
@@ -147,6 +201,7 @@ public class GameBoyAdvanceBGMatrixRenderer {
     public void screenSizePreprocess(int BGScreenSize) {
         // Map size in tiles: 16, 32, 64, or 128
         mapSize = 0x10 << BGScreenSize;
+        mapSizeShift = 4 + BGScreenSize;
         // Map size in pixels - 1 (for masking)
         mapSizeComparer = (mapSize << 3) - 1;
     }
@@ -163,16 +218,11 @@ public class GameBoyAdvanceBGMatrixRenderer {
     }
 
     /**
-     * Update the overflow mode and select the appropriate fetch function.
+     * Update the overflow mode.
      *
      * @param doOverflow Overflow mode (0=clamp, non-zero=wrap)
      */
     private void displayOverflowProcess(int doOverflow) {
         BGDisplayOverflow = doOverflow;
-        if (doOverflow != 0) {
-            fetchPixel = this::fetchPixelOverflow;
-        } else {
-            fetchPixel = this::fetchPixelNoOverflow;
-        }
     }
 }
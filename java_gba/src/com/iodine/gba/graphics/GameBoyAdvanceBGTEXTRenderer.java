@@ -11,6 +11,10 @@ package com.iodine.gba.graphics;
  * - Tile flipping (horizontal and vertical)
  * - Multiple screen sizes (32x32, 64x32, 32x64, 64x64 tiles)
  * - Mosaic effects
+ *
+ * Lines are copied out of a cache of fully decoded BG rows, 256 or 512 pixels wide to cover
+ * the map's horizontal wraparound, so scrolling is a windowed copy. A row stays valid until
+ * its map row, the layer's character data, the BG palette or BGxCNT changes.
  */
 public class GameBoyAdvanceBGTEXTRenderer {
     public GameBoyAdvanceRenderer gfx;
@@ -24,6 +28,7 @@ public class GameBoyAdvanceBGTEXTRenderer {
     public int[] palette16;
     public int[] palette256;
     public int[] buffer;
+    public GameBoyAdvanceTileCache tileCache;
 
     // Scratch buffers for tile rendering
     public int[] tileFetched;  // 8 pixels of current tile
@@ -45,6 +50,16 @@ public class GameBoyAdvanceBGTEXTRenderer {
     // Reference to mosaic renderer
     public GameBoyAdvanceMosaicRenderer mosaicRenderer;
 
+    // Decoded row cache, one 512 pixel slot per BG row modulo 256
+    public int[] rowCache;
+    public int[] rowCacheY;
+    public int[] rowCacheGenerations;
+    public int rowCacheGeneration;  // Bumped to drop every row at once
+    public int widthMask;
+    public int heightMask;
+    public long rowCacheHits;
+    public long rowCacheMisses;
+
     public GameBoyAdvanceBGTEXTRenderer(GameBoyAdvanceRenderer gfx, int BGLayer) {
         this.gfx = gfx;
         this.BGLayer = BGLayer;
@@ -60,9 +75,17 @@ public class GameBoyAdvanceBGTEXTRenderer {
         palette256 = gfx.palette256;
         buffer = gfx.buffer;
         mosaicRenderer = gfx.mosaicRenderer;
+        tileCache = gfx.tileCache;
 
         // Initialize scratch buffer for tile fetching
         tileFetched = new int[8];
+        rowCache = new int[0x20000];
+        rowCacheY = new int[0x100];
+        rowCacheGenerations = new int[0x100];
+        java.util.Arrays.fill(rowCacheY, -1);
+        rowCacheGeneration = 0;
+        rowCacheHits = 0;
+        rowCacheMisses = 0;
 
         // Initialize state
         BGXCoord = 0;
@@ -84,21 +107,16 @@ public class GameBoyAdvanceBGTEXTRenderer {
     public void renderScanLine(int line) {
         // Apply mosaic Y offset if enabled
         if (doMosaic != 0) {
-            line = line - mosaicRenderer.getMosaicYOffset(line);
+            line = line - mosaicRenderer.BGMosaicYOffset[line];
         }
 
-        // Calculate tile coordinates
-        int yTileOffset = (line + BGYCoord) & 0x7;
-        int yTileStart = (line + BGYCoord) >> 3;
-        int xTileStart = BGXCoord >> 3;
-
-        // Render the tiles based on color mode
-        if (do256 != 0) {
-            // 8-bit palette mode (256 colors)
-            render8BITLine(yTileStart, xTileStart, yTileOffset);
-        } else {
-            // 4-bit palette mode (16 colors)
-            render4BITLine(yTileStart, xTileStart, yTileOffset);
+        // Copy the visible window out of the decoded row, wrapping around the map width
+        int row = fetchRow((line + BGYCoord) & heightMask);
+        int xStart = BGXCoord & widthMask;
+        int length = Math.min(240, widthMask + 1 - xStart);
+        System.arraycopy(rowCache, row + xStart, buffer, offset, length);
+        if (length < 240) {
+            System.arraycopy(rowCache, row, buffer, offset + length, 240 - length);
         }
 
         // Apply horizontal mosaic if enabled
@@ -108,117 +126,91 @@ public class GameBoyAdvanceBGTEXTRenderer {
     }
 
     /**
-     * Render a scanline in 8-bit color mode.
+     * Find or decode a BG row.
+     * @return Offset of the row in rowCache
      */
-    public void render8BITLine(int yTileStart, int xTileStart, int yTileOffset) {
-        // Fetch first tile attributes
-        int chrData = fetchTile(yTileStart, xTileStart);
-        xTileStart++;
-
-        // Get 8 pixels of data
-        process8BitVRAM(chrData, yTileOffset);
-
-        // Copy the buffered tile to line (handles partial first tile)
-        fetchVRAMStart();
-
-        // Render the rest of the tiles fast
-        renderWholeTiles8BIT(xTileStart, yTileStart, yTileOffset);
+    public int fetchRow(int y) {
+        int slot = y & 0xFF;
+        int row = slot << 9;
+        if (rowCacheY[slot] == y && rowCacheGenerations[slot] == rowCacheGeneration) {
+            rowCacheHits++;
+        } else {
+            rowCacheMisses++;
+            renderRow(y, row);
+            rowCacheY[slot] = y;
+            rowCacheGenerations[slot] = rowCacheGeneration;
+        }
+        return row;
     }
 
     /**
-     * Render a scanline in 4-bit color mode.
+     * Decode a whole BG row, all 32 or 64 tiles.
      */
-    public void render4BITLine(int yTileStart, int xTileStart, int yTileOffset) {
-        // Fetch first tile attributes
-        int chrData = fetchTile(yTileStart, xTileStart);
-        xTileStart++;
-
-        // Get 8 pixels of data
-        process4BitVRAM(chrData, yTileOffset);
-
-        // Copy the buffered tile to line (handles partial first tile)
-        fetchVRAMStart();
-
-        // Render the rest of the tiles fast
-        renderWholeTiles4BIT(xTileStart, yTileStart, yTileOffset);
+    public void renderRow(int y, int row) {
+        int yTileStart = y >> 3;
+        int yTileOffset = y & 0x7;
+        int tileCount = (widthMask + 1) >> 3;
+        for (int xTile = 0; xTile < tileCount; xTile++) {
+            // Fetch tile attributes and get 8 pixels of data
+            if (do256 != 0) {
+                process8BitVRAM(fetchTile(yTileStart, xTile), yTileOffset);
+            } else {
+                process4BitVRAM(fetchTile(yTileStart, xTile), yTileOffset);
+            }
+            System.arraycopy(tileFetched, 0, rowCache, row | (xTile << 3), 8);
+        }
     }
 
     /**
-     * Render whole tiles in 8-bit mode.
-     * Process full 8 pixels at a time.
+     * Drop every cached row.
      */
-    public void renderWholeTiles8BIT(int xTileStart, int yTileStart, int yTileOffset) {
-        // Process full 8 pixels at a time
-        for (int position = 8 - (BGXCoord & 0x7); position < 240; position += 8) {
-            // Fetch tile attributes and get 8 pixels of data
-            process8BitVRAM(fetchTile(yTileStart, xTileStart), yTileOffset);
-
-            // Copy the buffered tile to line
-            buffer[offset + position] = tileFetched[0];
-            buffer[offset + position + 1] = tileFetched[1];
-            buffer[offset + position + 2] = tileFetched[2];
-            buffer[offset + position + 3] = tileFetched[3];
-            buffer[offset + position + 4] = tileFetched[4];
-            buffer[offset + position + 5] = tileFetched[5];
-            buffer[offset + position + 6] = tileFetched[6];
-            buffer[offset + position + 7] = tileFetched[7];
-
-            // Increment tile counter
-            xTileStart++;
-        }
+    public void invalidateRowCache() {
+        rowCacheGeneration++;
     }
 
     /**
-     * Render whole tiles in 4-bit mode.
-     * Process full 8 pixels at a time.
+     * Called after a VRAM write to the given byte address.
      */
-    public void renderWholeTiles4BIT(int xTileStart, int yTileStart, int yTileOffset) {
-        // Process full 8 pixels at a time
-        for (int position = 8 - (BGXCoord & 0x7); position < 240; position += 8) {
-            // Fetch tile attributes and get 8 pixels of data
-            process4BitVRAM(fetchTile(yTileStart, xTileStart), yTileOffset);
-
-            // Copy the buffered tile to line
-            buffer[offset + position] = tileFetched[0];
-            buffer[offset + position + 1] = tileFetched[1];
-            buffer[offset + position + 2] = tileFetched[2];
-            buffer[offset + position + 3] = tileFetched[3];
-            buffer[offset + position + 4] = tileFetched[4];
-            buffer[offset + position + 5] = tileFetched[5];
-            buffer[offset + position + 6] = tileFetched[6];
-            buffer[offset + position + 7] = tileFetched[7];
-
-            // Increment tile counter
-            xTileStart++;
+    public void invalidateVRAM(int address) {
+        if (address < 0x10000) {
+            // Character data, tiles span 32KB at 4 bits and 64KB at 8 bits
+            int characterOffset = address - (BGCharacterBaseBlock << 2);
+            if (characterOffset >= 0 && characterOffset < ((do256 != 0) ? 0x10000 : 0x8000)) {
+                invalidateRowCache();
+            }
+            // Tile map, addressed in halfwords and wrapping around 64KB like fetchTile
+            int tileNumber = ((address >> 1) - BGScreenBaseBlock) & 0x7FFF;
+            if (tileNumber < ((tileMode == 0) ? 0x400 : ((tileMode == 3) ? 0x1000 : 0x800))) {
+                invalidateMapRow(tileNumber);
+            }
         }
     }
 
     /**
-     * Handle the first tile of the scan-line specially.
-     * The first tile may be partial based on BGXCoord offset.
+     * Drop the 8 rows of the tile row holding the given map entry, inverse of computeTileNumber.
      */
-    public void fetchVRAMStart() {
-        int pixelPipelinePosition = BGXCoord & 0x7;
-
-        // Use fall-through switch to copy pixels starting from the offset
-        switch (pixelPipelinePosition) {
-            case 0:
-                buffer[offset + 0] = tileFetched[0];
-            case 1:
-                buffer[offset + 1 - pixelPipelinePosition] = tileFetched[1];
+    public void invalidateMapRow(int tileNumber) {
+        int yTile;
+        switch (tileMode) {
             case 2:
-                buffer[offset + 2 - pixelPipelinePosition] = tileFetched[2];
+                yTile = (tileNumber >> 5) & 0x3F;
+                break;
             case 3:
-                buffer[offset + 3 - pixelPipelinePosition] = tileFetched[3];
-            case 4:
-                buffer[offset + 4 - pixelPipelinePosition] = tileFetched[4];
-            case 5:
-                buffer[offset + 5 - pixelPipelinePosition] = tileFetched[5];
-            case 6:
-                buffer[offset + 6 - pixelPipelinePosition] = tileFetched[6];
+                yTile = ((tileNumber >> 5) & 0x1F) | ((tileNumber >> 6) & 0x20);
+                break;
             default:
-                buffer[offset + 7 - pixelPipelinePosition] = tileFetched[7];
+                yTile = (tileNumber >> 5) & 0x1F;
         }
+        for (int y = yTile << 3, yEnd = y + 8; y < yEnd; y++) {
+            if (rowCacheY[y & 0xFF] == y) {
+                rowCacheY[y & 0xFF] = -1;
+            }
+        }
+    }
+
+    public double rowCacheHitRate() {
+        long lookups = rowCacheHits + rowCacheMisses;
+        return (lookups == 0) ? 0 : ((double)rowCacheHits / lookups);
     }
 
     /**
@@ -289,31 +281,18 @@ public class GameBoyAdvanceBGTEXTRenderer {
     public void render4BitVRAM(int chrData, int address) {
         // Check if tile address is valid
         if (address < 0x4000) {
-            // Tile address valid
+            // Tile address valid, the flipped copy of the row follows the unflipped one
             int paletteOffset = chrData & 0xF0;
-            int data = VRAM32.get(address);
-
-            if ((chrData & 0x4) == 0) {
-                // Normal horizontal
-                tileFetched[0] = palette16[paletteOffset | (data & 0xF)] | priorityFlag;
-                tileFetched[1] = palette16[paletteOffset | ((data >> 4) & 0xF)] | priorityFlag;
-                tileFetched[2] = palette16[paletteOffset | ((data >> 8) & 0xF)] | priorityFlag;
-                tileFetched[3] = palette16[paletteOffset | ((data >> 12) & 0xF)] | priorityFlag;
-                tileFetched[4] = palette16[paletteOffset | ((data >> 16) & 0xF)] | priorityFlag;
-                tileFetched[5] = palette16[paletteOffset | ((data >> 20) & 0xF)] | priorityFlag;
-                tileFetched[6] = palette16[paletteOffset | ((data >> 24) & 0xF)] | priorityFlag;
-                tileFetched[7] = palette16[paletteOffset | (data >>> 28)] | priorityFlag;
-            } else {
-                // Flipped horizontally
-                tileFetched[0] = palette16[paletteOffset | (data >>> 28)] | priorityFlag;
-                tileFetched[1] = palette16[paletteOffset | ((data >> 24) & 0xF)] | priorityFlag;
-                tileFetched[2] = palette16[paletteOffset | ((data >> 20) & 0xF)] | priorityFlag;
-                tileFetched[3] = palette16[paletteOffset | ((data >> 16) & 0xF)] | priorityFlag;
-                tileFetched[4] = palette16[paletteOffset | ((data >> 12) & 0xF)] | priorityFlag;
-                tileFetched[5] = palette16[paletteOffset | ((data >> 8) & 0xF)] | priorityFlag;
-                tileFetched[6] = palette16[paletteOffset | ((data >> 4) & 0xF)] | priorityFlag;
-                tileFetched[7] = palette16[paletteOffset | (data & 0xF)] | priorityFlag;
-            }
+            byte[] decoded = tileCache.decoded4Bit;
+            int row = tileCache.fetch4BitRow(address) | ((chrData & 0x4) << 1);
+            tileFetched[0] = palette16[paletteOffset | decoded[row]] | priorityFlag;
+            tileFetched[1] = palette16[paletteOffset | decoded[row | 1]] | priorityFlag;
+            tileFetched[2] = palette16[paletteOffset | decoded[row | 2]] | priorityFlag;
+            tileFetched[3] = palette16[paletteOffset | decoded[row | 3]] | priorityFlag;
+            tileFetched[4] = palette16[paletteOffset | decoded[row | 4]] | priorityFlag;
+            tileFetched[5] = palette16[paletteOffset | decoded[row | 5]] | priorityFlag;
+            tileFetched[6] = palette16[paletteOffset | decoded[row | 6]] | priorityFlag;
+            tileFetched[7] = palette16[paletteOffset | decoded[row | 7]] | priorityFlag;
         } else {
             // Tile address invalid
             addressInvalidRender();
@@ -357,17 +336,7 @@ public class GameBoyAdvanceBGTEXTRenderer {
     public void render8BitVRAMNormal(int address) {
         if (address < 0x4000) {
             // Tile address valid - normal horizontal
-            int data = VRAM32.get(address);
-            tileFetched[0] = palette256[data & 0xFF] | priorityFlag;
-            tileFetched[1] = palette256[(data >> 8) & 0xFF] | priorityFlag;
-            tileFetched[2] = palette256[(data >> 16) & 0xFF] | priorityFlag;
-            tileFetched[3] = palette256[data >>> 24] | priorityFlag;
-
-            data = VRAM32.get(address + 1);
-            tileFetched[4] = palette256[data & 0xFF] | priorityFlag;
-            tileFetched[5] = palette256[(data >> 8) & 0xFF] | priorityFlag;
-            tileFetched[6] = palette256[(data >> 16) & 0xFF] | priorityFlag;
-            tileFetched[7] = palette256[data >>> 24] | priorityFlag;
+            render8BitRow(tileCache.fetch8BitRow(address));
         } else {
             // Tile address invalid
             addressInvalidRender();
@@ -381,23 +350,25 @@ public class GameBoyAdvanceBGTEXTRenderer {
     public void render8BitVRAMFlipped(int address) {
         if (address < 0x4000) {
             // Tile address valid - flipped horizontally
-            int data = VRAM32.get(address);
-            tileFetched[4] = palette256[data >>> 24] | priorityFlag;
-            tileFetched[5] = palette256[(data >> 16) & 0xFF] | priorityFlag;
-            tileFetched[6] = palette256[(data >> 8) & 0xFF] | priorityFlag;
-            tileFetched[7] = palette256[data & 0xFF] | priorityFlag;
-
-            data = VRAM32.get(address + 1);
-            tileFetched[0] = palette256[data >>> 24] | priorityFlag;
-            tileFetched[1] = palette256[(data >> 16) & 0xFF] | priorityFlag;
-            tileFetched[2] = palette256[(data >> 8) & 0xFF] | priorityFlag;
-            tileFetched[3] = palette256[data & 0xFF] | priorityFlag;
+            render8BitRow(tileCache.fetch8BitRow(address) | 8);
         } else {
             // Tile address invalid
             addressInvalidRender();
         }
     }
 
+    public void render8BitRow(int row) {
+        byte[] decoded = tileCache.decoded8Bit;
+        tileFetched[0] = palette256[decoded[row] & 0xFF] | priorityFlag;
+        tileFetched[1] = palette256[decoded[row | 1] & 0xFF] | priorityFlag;
+        tileFetched[2] = palette256[decoded[row | 2] & 0xFF] | priorityFlag;
+        tileFetched[3] = palette256[decoded[row | 3] & 0xFF] | priorityFlag;
+        tileFetched[4] = palette256[decoded[row | 4] & 0xFF] | priorityFlag;
+        tileFetched[5] = palette256[decoded[row | 5] & 0xFF] | priorityFlag;
+        tileFetched[6] = palette256[decoded[row | 6] & 0xFF] | priorityFlag;
+        tileFetched[7] = palette256[decoded[row | 7] & 0xFF] | priorityFlag;
+    }
+
     /**
      * Fill tile buffer with transparency for invalid tile addresses.
      * In GBA mode on NDS, we display transparency on invalid tiles.
@@ -427,6 +398,7 @@ public class GameBoyAdvanceBGTEXTRenderer {
      */
     public void paletteModeSelect(int do256) {
         this.do256 = do256;
+        invalidateRowCache();
     }
 
     /**
@@ -434,6 +406,9 @@ public class GameBoyAdvanceBGTEXTRenderer {
      */
     public void screenSizePreprocess(int BGScreenSize) {
         this.tileMode = BGScreenSize;
+        widthMask = ((BGScreenSize & 0x1) != 0) ? 0x1FF : 0xFF;
+        heightMask = ((BGScreenSize & 0x2) != 0) ? 0x1FF : 0xFF;
+        invalidateRowCache();
     }
 
     /**
@@ -442,6 +417,9 @@ public class GameBoyAdvanceBGTEXTRenderer {
     public void priorityPreprocess(int BGPriority) {
         // Priority in bits 23-24, layer flag in bit (0x10 + BGLayer)
         priorityFlag = (BGPriority << 23) | (1 << (BGLayer + 0x10));
+        invalidateRowCache();
+        // Keep the compositor's front to back layer order current
+        gfx.compositor.priorityPreprocess(BGLayer, BGPriority);
     }
 
     /**
@@ -449,6 +427,7 @@ public class GameBoyAdvanceBGTEXTRenderer {
      */
     public void screenBaseBlockPreprocess(int BGScreenBaseBlock) {
         this.BGScreenBaseBlock = BGScreenBaseBlock << 10;
+        invalidateRowCache();
     }
 
     /**
@@ -456,6 +435,7 @@ public class GameBoyAdvanceBGTEXTRenderer {
      */
     public void characterBaseBlockPreprocess(int BGCharacterBaseBlock) {
         this.BGCharacterBaseBlock = BGCharacterBaseBlock << 12;
+        invalidateRowCache();
     }
 
     // Register write methods
@@ -25,6 +25,15 @@ public class GameBoyAdvanceColorEffectsRenderer {
     // Brightness effect amount (0-16)
     public int brightnessEffectAmount;
 
+    // Faded value of every 5-bit channel for the current BLDY amount
+    public int[] brightnessIncreaseTable = new int[0x20];
+    public int[] brightnessDecreaseTable = new int[0x20];
+
+    // Channel layout used by alphaBlend, see spreadChannels
+    public static final int SPREAD_CHANNEL_MASK = 0x1F | (0x1F << 11) | (0x1F << 22);
+    public static final int SPREAD_OVERFLOW_MASK = 0x20 | (0x20 << 11) | (0x20 << 22);
+    public static final int SPREAD_RESULT_MASK = SPREAD_CHANNEL_MASK | SPREAD_OVERFLOW_MASK;
+
     public GameBoyAdvanceColorEffectsRenderer(int[] buffer) {
         this.buffer = buffer;
         this.effectsTarget1 = 0;
@@ -33,39 +42,34 @@ public class GameBoyAdvanceColorEffectsRenderer {
         this.alphaBlendAmountTarget1 = 0;
         this.alphaBlendAmountTarget2 = 0;
         this.brightnessEffectAmount = 0;
+        updateBrightnessTables();
     }
 
     /**
      * Alpha blend two pixels together.
-     * Blends topPixel with lowerPixel using the blend amounts.
+     * Blends topPixel with lowerPixel using the blend amounts, all three channels at once:
+     * the channels are spread 11 bits apart so the products and their sum cannot carry
+     * into the next channel, then clamped and packed back.
      *
      * @param topPixel Top layer pixel (15-bit BGR555)
      * @param lowerPixel Lower layer pixel (15-bit BGR555)
      * @return Blended pixel (15-bit BGR555)
      */
     public int alphaBlend(int topPixel, int lowerPixel) {
-        // Extract BGR components (5 bits each)
-        int b1 = (topPixel >> 10) & 0x1F;
-        int g1 = (topPixel >> 5) & 0x1F;
-        int r1 = topPixel & 0x1F;
-        int b2 = (lowerPixel >> 10) & 0x1F;
-        int g2 = (lowerPixel >> 5) & 0x1F;
-        int r2 = lowerPixel & 0x1F;
-
-        // Blend each component: (c1 * amount1 + c2 * amount2) / 16
-        b1 = b1 * alphaBlendAmountTarget1;
-        g1 = g1 * alphaBlendAmountTarget1;
-        r1 = r1 * alphaBlendAmountTarget1;
-        b2 = b2 * alphaBlendAmountTarget2;
-        g2 = g2 * alphaBlendAmountTarget2;
-        r2 = r2 * alphaBlendAmountTarget2;
-
-        // Clamp to 5-bit range and combine
-        int b = Math.min((b1 + b2) >> 4, 0x1F);
-        int g = Math.min((g1 + g2) >> 4, 0x1F);
-        int r = Math.min((r1 + r2) >> 4, 0x1F);
-
-        return (b << 10) | (g << 5) | r;
+        // (c1 * amount1 + c2 * amount2) / 16 for every channel
+        int sum = spreadChannels(topPixel) * alphaBlendAmountTarget1 + spreadChannels(lowerPixel) * alphaBlendAmountTarget2;
+        int result = (sum >>> 4) & SPREAD_RESULT_MASK;
+        // Saturate channels that went past 0x1F
+        int overflow = result & SPREAD_OVERFLOW_MASK;
+        result = (result | ((overflow >> 5) * 0x1F)) & SPREAD_CHANNEL_MASK;
+        return (result & 0x1F) | ((result >> 6) & 0x3E0) | ((result >> 12) & 0x7C00);
+    }
+
+    /**
+     * Place the red, green and blue fields of a BGR555 pixel at bits 0, 11 and 22.
+     */
+    public static int spreadChannels(int pixel) {
+        return (pixel & 0x1F) | ((pixel & 0x3E0) << 6) | ((pixel & 0x7C00) << 12);
     }
 
     /**
@@ -75,17 +79,10 @@ public class GameBoyAdvanceColorEffectsRenderer {
      * @return Brightened pixel (15-bit BGR555)
      */
     public int brightnessIncrease(int topPixel) {
-        // Extract BGR components
-        int b1 = (topPixel >> 10) & 0x1F;
-        int g1 = (topPixel >> 5) & 0x1F;
-        int r1 = topPixel & 0x1F;
-
-        // Add (max - current) * amount / 16 to each component
-        b1 += ((0x1F - b1) * brightnessEffectAmount) >> 4;
-        g1 += ((0x1F - g1) * brightnessEffectAmount) >> 4;
-        r1 += ((0x1F - r1) * brightnessEffectAmount) >> 4;
-
-        return (b1 << 10) | (g1 << 5) | r1;
+        int[] brightnessIncreaseTable = this.brightnessIncreaseTable;
+        return brightnessIncreaseTable[topPixel & 0x1F] |
+                (brightnessIncreaseTable[(topPixel >> 5) & 0x1F] << 5) |
+                (brightnessIncreaseTable[(topPixel >> 10) & 0x1F] << 10);
     }
 
     /**
@@ -95,18 +92,23 @@ public class GameBoyAdvanceColorEffectsRenderer {
      * @return Darkened pixel (15-bit BGR555)
      */
     public int brightnessDecrease(int topPixel) {
-        // Extract BGR components
-        int b1 = (topPixel >> 10) & 0x1F;
-        int g1 = (topPixel >> 5) & 0x1F;
-        int r1 = topPixel & 0x1F;
+        int[] brightnessDecreaseTable = this.brightnessDecreaseTable;
+        return brightnessDecreaseTable[topPixel & 0x1F] |
+                (brightnessDecreaseTable[(topPixel >> 5) & 0x1F] << 5) |
+                (brightnessDecreaseTable[(topPixel >> 10) & 0x1F] << 10);
+    }
 
-        // Multiply by (16 - amount) / 16
+    /**
+     * Rebuild the per-channel brightness tables for the current BLDY amount.
+     */
+    public void updateBrightnessTables() {
         int decreaseMultiplier = 0x10 - brightnessEffectAmount;
-        b1 = (b1 * decreaseMultiplier) >> 4;
-        g1 = (g1 * decreaseMultiplier) >> 4;
-        r1 = (r1 * decreaseMultiplier) >> 4;
-
-        return (b1 << 10) | (g1 << 5) | r1;
+        for (int channel = 0; channel < 0x20; channel++) {
+            // Add (max - current) * amount / 16
+            brightnessIncreaseTable[channel] = channel + (((0x1F - channel) * brightnessEffectAmount) >> 4);
+            // Multiply by (16 - amount) / 16
+            brightnessDecreaseTable[channel] = (channel * decreaseMultiplier) >> 4;
+        }
     }
 
     /**
@@ -245,5 +247,6 @@ public class GameBoyAdvanceColorEffectsRenderer {
      */
     public void writeBLDY8(int data) {
         brightnessEffectAmount = Math.min(data & 0x1F, 0x10);
+        updateBrightnessTables();
     }
 }
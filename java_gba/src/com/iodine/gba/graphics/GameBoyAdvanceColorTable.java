@@ -0,0 +1,60 @@
+package com.iodine.gba.graphics;
+
+/**
+ * GameBoyAdvanceColorTable - BGR555 to ARGB8888 conversion
+ *
+ * One entry per 15-bit color, so the renderer turns a composited pixel into a display ready
+ * int with a single lookup. The optional LCD color correction (the curve used by higan for
+ * the GBA screen: LCD gamma 4.0, channel cross-talk, output gamma 2.2) and grayscale are
+ * folded into the same table.
+ */
+public class GameBoyAdvanceColorTable {
+    public int[] table = new int[0x8000];
+    public boolean colorCorrection;
+    public boolean grayscale;
+
+    public GameBoyAdvanceColorTable() {
+        generate(false, false);
+    }
+
+    /**
+     * Rebuild the table in place, renderers holding it pick up the change on their next line.
+     */
+    public void generate(boolean colorCorrection, boolean grayscale) {
+        this.colorCorrection = colorCorrection;
+        this.grayscale = grayscale;
+        for (int color = 0; color < 0x8000; color++) {
+            int red = color & 0x1F;
+            int green = (color >> 5) & 0x1F;
+            int blue = color >> 10;
+            double r;
+            double g;
+            double b;
+            if (colorCorrection) {
+                double lr = Math.pow(red / 31.0, 4.0);
+                double lg = Math.pow(green / 31.0, 4.0);
+                double lb = Math.pow(blue / 31.0, 4.0);
+                double scale = 255.0 / 280.0;
+                r = Math.pow((50 * lg + 255 * lr) / 255.0, 1 / 2.2) * scale;
+                g = Math.pow((30 * lb + 230 * lg + 10 * lr) / 255.0, 1 / 2.2) * scale;
+                b = Math.pow((220 * lb + 10 * lg + 50 * lr) / 255.0, 1 / 2.2) * scale;
+            } else {
+                // Replicate the top bits so white maps to 0xFF
+                r = ((red << 3) | (red >> 2)) / 255.0;
+                g = ((green << 3) | (green >> 2)) / 255.0;
+                b = ((blue << 3) | (blue >> 2)) / 255.0;
+            }
+            if (grayscale) {
+                double luma = 0.299 * r + 0.587 * g + 0.114 * b;
+                r = luma;
+                g = luma;
+                b = luma;
+            }
+            table[color] = 0xFF000000 | (toChannel(r) << 16) | (toChannel(g) << 8) | toChannel(b);
+        }
+    }
+
+    public static int toChannel(double value) {
+        return Math.min(Math.max((int)Math.round(value * 255.0), 0), 255);
+    }
+}
@@ -1,28 +1,150 @@
 package com.iodine.gba.graphics;
 
+import java.util.Arrays;
+
 /**
  * GameBoyAdvanceCompositor - Layer composition (converted from Compositor.js)
  * Copyright (C) 2012-2016 Grant Galitz
  *
  * This compositor combines multiple background layers and sprites into the final output,
  * handling priority ordering and color effects. The original JavaScript used dynamic code
- * generation to create 192 optimized functions. This Java version implements the same logic
- * using a more maintainable approach.
+ * generation to create 192 optimized functions. This Java version has a hand unrolled span
+ * kernel for every BG layer count, sprite presence and effects mode, and every layer mask
+ * selects the kernel for its own layer count, once per span. The kernels keep the layer
+ * offsets, top and lower pixel in locals and allocate nothing.
+ *
+ * Every pixel of a BG line carries its layer's priority, so the BG offsets of each mask are
+ * kept sorted front to back (priority, then BG number) and rebuilt only when a BGxCNT
+ * priority changes. The kernels walk the layers front to back and stop at the first opaque
+ * BG pixel, or the first two when effects or sprites need the lower pixel. Sprite pixels
+ * carry their own priority and are merged last, winning ties against backgrounds.
+ * GameBoyAdvanceCompositorCheck compares every kernel with a plain per pixel reference.
+ *
+ * With windows enabled, the window compositors mark the region each window owns on the
+ * line into windowControl, outside first and higher priority windows over it. The line is
+ * then cut into spans of equal layer mask and effects flag and each span is composited
+ * once, however many windows overlap it.
+ *
+ * The window compositors share these kernels through renderSpan. When the JDK provides
+ * jdk.incubator.vector and the optional src-vector root was compiled, SIMD versions of the
+ * BG and OBJ kernels are installed over the scalar ones. GameBoyAdvanceCompositorCheck
+ * checks them against the same reference as the scalar kernels.
  */
 public class GameBoyAdvanceCompositor {
+    @FunctionalInterface
+    public interface SpanRenderer {
+        void renderSpan(int xStart, int xEnd, int[] layerOffsets);
+    }
+
+    /**
+     * Alternative span kernels, installed over the scalar ones by generateSpanRenderers.
+     */
+    public interface SpanBackend {
+        void generateSpanRenderers(GameBoyAdvanceCompositor compositor);
+    }
+
+    public static final String VECTOR_BACKEND_CLASS = "com.iodine.gba.graphics.GameBoyAdvanceCompositorVector";
+    // Why the vector kernels are installed but could not be loaded, null otherwise
+    public static Throwable vectorBackendError = null;
+    // Null when the vector kernels are unavailable
+    public static final SpanBackend vectorBackend = loadVectorBackend();
+
     public GameBoyAdvanceRenderer gfx;
     public int[] buffer;
     public GameBoyAdvanceColorEffectsRenderer colorEffectsRenderer;
     public int doEffects;
+    // BG buffer offsets for every layer mask, front to back
+    public int[][] layerOrderTable = new int[0x10][];
+    public int[] BGPriority = new int[4];
+    // Span kernels indexed by (doEffects << 5) | layers
+    public SpanRenderer[] spanRenderers = new SpanRenderer[0x40];
+    // The scalar kernels, for the pixels alternative kernels leave over
+    public SpanRenderer[] scalarSpanRenderers = new SpanRenderer[0x40];
+    // (doEffects << 5) | layers of the window owning each pixel of the line
+    public int[] windowControl = new int[240];
+    // Spans of the windowed line, span end and control pairs in screen order
+    public int[] windowSpans = new int[480];
+    public int windowSpanCount;
 
     public GameBoyAdvanceCompositor(GameBoyAdvanceRenderer gfx) {
         this.gfx = gfx;
         this.doEffects = 0;
+        for (int layers = 0; layers < 0x10; layers++) {
+            layerOrderTable[layers] = new int[Integer.bitCount(layers)];
+        }
     }
 
     public void initialize() {
         this.buffer = gfx.buffer;
         this.colorEffectsRenderer = gfx.colorEffectsRenderer;
+        generateSpanRenderers();
+        for (int layer = 0; layer < 4; layer++) {
+            BGPriority[layer] = 0;
+        }
+        generateLayerOrderTable();
+    }
+
+    /**
+     * Called by the BG renderers whenever a BGxCNT write sets the layer's priority.
+     */
+    public void priorityPreprocess(int BGLayer, int priority) {
+        if (BGPriority[BGLayer] != priority) {
+            BGPriority[BGLayer] = priority;
+            generateLayerOrderTable();
+        }
+    }
+
+    public void generateLayerOrderTable() {
+        // Rebuilt in place, the per mask arrays keep their sizes
+        for (int layers = 1; layers < 0x10; layers++) {
+            int[] offsets = layerOrderTable[layers];
+            int count = 0;
+            for (int priority = 0; priority < 4; priority++) {
+                for (int layer = 0; layer < 4; layer++) {
+                    if ((layers & (1 << layer)) != 0 && BGPriority[layer] == priority) {
+                        offsets[count++] = (layer + 1) << 8;
+                    }
+                }
+            }
+        }
+    }
+
+    public void generateSpanRenderers() {
+        generateScalarSpanRenderers();
+        if (vectorBackend != null) {
+            vectorBackend.generateSpanRenderers(this);
+        }
+    }
+
+    public void generateScalarSpanRenderers() {
+        // Indexed by BG layer count
+        SpanRenderer[] BGNormal = {this::renderBackdropNormal, this::renderBG1Normal, this::renderBG2Normal, this::renderBG3Normal, this::renderBG4Normal};
+        SpanRenderer[] BGWithEffects = {this::renderBackdropWithEffects, this::renderBG1WithEffects, this::renderBG2WithEffects, this::renderBG3WithEffects, this::renderBG4WithEffects};
+        SpanRenderer[] OBJNormal = {this::renderOBJ0Normal, this::renderOBJ1Normal, this::renderOBJ2Normal, this::renderOBJ3Normal, this::renderOBJ4Normal};
+        SpanRenderer[] OBJWithEffects = {this::renderOBJ0WithEffects, this::renderOBJ1WithEffects, this::renderOBJ2WithEffects, this::renderOBJ3WithEffects, this::renderOBJ4WithEffects};
+        for (int layers = 0; layers < 0x20; layers++) {
+            int layerCount = Integer.bitCount(layers & 0xF);
+            if ((layers & 0x10) == 0) {
+                scalarSpanRenderers[layers] = BGNormal[layerCount];
+                scalarSpanRenderers[0x20 | layers] = BGWithEffects[layerCount];
+            } else {
+                scalarSpanRenderers[layers] = OBJNormal[layerCount];
+                scalarSpanRenderers[0x20 | layers] = OBJWithEffects[layerCount];
+            }
+            spanRenderers[layers] = scalarSpanRenderers[layers];
+            spanRenderers[0x20 | layers] = scalarSpanRenderers[0x20 | layers];
+        }
+    }
+
+    public static SpanBackend loadVectorBackend() {
+        try {
+            return (SpanBackend)Class.forName(VECTOR_BACKEND_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException | NoClassDefFoundError error) {
+            // Not compiled, or the JDK runs without jdk.incubator.vector, the scalar kernels are used
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException error) {
+            vectorBackendError = error;
+        }
+        return null;
     }
 
     public void preprocess(int doEffects) {
@@ -30,180 +152,468 @@ public class GameBoyAdvanceCompositor {
     }
 
     public void renderScanLine(int layers) {
-        if (doEffects == 0) {
-            renderNormalScanLine(layers);
-        } else {
-            renderScanLineWithEffects(layers);
+        renderSpan(0, 240, layers, doEffects);
+    }
+
+    /**
+     * Give [xStart, xEnd) of the windowed line to a window, over any window marked before.
+     *
+     * @param layers Layer mask, BG0-BG3 in bits 0-3 and OBJ in bit 4
+     * @param doEffects Non-zero when color effects apply inside the window
+     */
+    public void markSpan(int xStart, int xEnd, int layers, int doEffects) {
+        Arrays.fill(windowControl, xStart, xEnd, ((doEffects != 0) ? 0x20 : 0) | (layers & 0x1F));
+    }
+
+    /**
+     * Cut the marked line into spans and composite each of them once.
+     */
+    public void renderWindowedScanLine() {
+        buildWindowSpans();
+        int xStart = 0;
+        for (int index = 0; index < windowSpanCount; index += 2) {
+            int xEnd = windowSpans[index];
+            int control = windowSpans[index | 1];
+            renderSpan(xStart, xEnd, control, control & 0x20);
+            xStart = xEnd;
+        }
+    }
+
+    public void buildWindowSpans() {
+        int[] windowControl = this.windowControl;
+        int[] windowSpans = this.windowSpans;
+        int count = 0;
+        int control = windowControl[0];
+        for (int x = 1; x < 240; x++) {
+            if (windowControl[x] != control) {
+                windowSpans[count++] = x;
+                windowSpans[count++] = control;
+                control = windowControl[x];
+            }
         }
+        windowSpans[count++] = 240;
+        windowSpans[count++] = control;
+        windowSpanCount = count;
     }
 
-    private void renderNormalScanLine(int layers) {
+    /**
+     * Composite [xStart, xEnd) of the line buffer from the given layers.
+     *
+     * @param layers Layer mask, BG0-BG3 in bits 0-3 and OBJ in bit 4
+     * @param doEffects Non-zero when color effects apply to this span
+     */
+    public void renderSpan(int xStart, int xEnd, int layers, int doEffects) {
+        layers &= 0x1F;
+        int index = (doEffects != 0) ? (0x20 | layers) : layers;
+        spanRenderers[index].renderSpan(xStart, xEnd, layerOrderTable[layers & 0xF]);
+    }
+
+    public void renderBackdropNormal(int xStart, int xEnd, int[] layerOffsets) {
         int backdrop = gfx.backdrop;
+        for (int x = xStart; x < xEnd; x++) {
+            buffer[x] = backdrop;
+        }
+    }
 
-        // Handle the simple no-layer case
-        if (layers == 0) {
-            for (int xStart = 0; xStart < 240; xStart++) {
-                buffer[xStart] = backdrop;
-            }
-            return;
+    public void renderBackdropWithEffects(int xStart, int xEnd, int[] layerOffsets) {
+        int pixel = colorEffectsRenderer.processPixelNormal(0, gfx.backdrop);
+        for (int x = xStart; x < xEnd; x++) {
+            buffer[x] = pixel;
         }
+    }
 
-        // Check if we have sprites
-        boolean hasSprites = (layers & 0x10) != 0;
+    public void renderBG1Normal(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        int layer0 = layerOffsets[0];
+        for (int x = xStart; x < xEnd; x++) {
+            buffer[x] = firstOpaqueBG(x, layer0, backdrop);
+        }
+    }
 
-        for (int xStart = 0; xStart < 240; xStart++) {
-            int currentPixel = backdrop;
-            int lowerPixel = backdrop;
+    public void renderBG2Normal(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        int layer0 = layerOffsets[0];
+        int layer1 = layerOffsets[1];
+        for (int x = xStart; x < xEnd; x++) {
+            buffer[x] = firstOpaqueBG(x, layer0, layer1, backdrop);
+        }
+    }
 
-            // Composite layers from back to front based on priority
-            // Layers are stored in buffer at offsets: BG0=0x100, BG1=0x200, BG2=0x300, BG3=0x400, OBJ=0x500
+    public void renderBG3Normal(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        int layer0 = layerOffsets[0];
+        int layer1 = layerOffsets[1];
+        int layer2 = layerOffsets[2];
+        for (int x = xStart; x < xEnd; x++) {
+            buffer[x] = firstOpaqueBG(x, layer0, layer1, layer2, backdrop);
+        }
+    }
 
-            // BG3
-            if ((layers & 0x8) != 0) {
-                int[] result = compositeLayer(xStart | 0x400, currentPixel, lowerPixel);
-                currentPixel = result[0];
-                lowerPixel = result[1];
-            }
+    public void renderBG4Normal(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        int layer0 = layerOffsets[0];
+        int layer1 = layerOffsets[1];
+        int layer2 = layerOffsets[2];
+        int layer3 = layerOffsets[3];
+        for (int x = xStart; x < xEnd; x++) {
+            buffer[x] = firstOpaqueBG(x, layer0, layer1, layer2, layer3, backdrop);
+        }
+    }
 
-            // BG2
-            if ((layers & 0x4) != 0) {
-                int[] result = compositeLayer(xStart | 0x300, currentPixel, lowerPixel);
-                currentPixel = result[0];
-                lowerPixel = result[1];
-            }
+    public void renderBG1WithEffects(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        int layer0 = layerOffsets[0];
+        for (int x = xStart; x < xEnd; x++) {
+            buffer[x] = colorEffectsRenderer.processPixelNormal(backdrop, firstOpaqueBG(x, layer0, backdrop));
+        }
+    }
 
-            // BG1
-            if ((layers & 0x2) != 0) {
-                int[] result = compositeLayer(xStart | 0x200, currentPixel, lowerPixel);
-                currentPixel = result[0];
-                lowerPixel = result[1];
+    public void renderBG2WithEffects(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        int layer0 = layerOffsets[0];
+        int layer1 = layerOffsets[1];
+        for (int x = xStart; x < xEnd; x++) {
+            // Front most opaque BG pixel, then the next one behind it
+            int lowerPixel = backdrop;
+            int currentPixel = buffer[x | layer0];
+            if ((currentPixel & 0x2000000) == 0) {
+                lowerPixel = firstOpaqueBG(x, layer1, backdrop);
+            } else {
+                currentPixel = firstOpaqueBG(x, layer1, backdrop);
             }
+            buffer[x] = colorEffectsRenderer.processPixelNormal(lowerPixel, currentPixel);
+        }
+    }
 
-            // BG0
-            if ((layers & 0x1) != 0) {
-                int[] result = compositeLayer(xStart | 0x100, currentPixel, lowerPixel);
-                currentPixel = result[0];
-                lowerPixel = result[1];
+    public void renderBG3WithEffects(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        int layer0 = layerOffsets[0];
+        int layer1 = layerOffsets[1];
+        int layer2 = layerOffsets[2];
+        for (int x = xStart; x < xEnd; x++) {
+            // Front most opaque BG pixel, then the next one behind it
+            int lowerPixel = backdrop;
+            int currentPixel = buffer[x | layer0];
+            if ((currentPixel & 0x2000000) == 0) {
+                lowerPixel = firstOpaqueBG(x, layer1, layer2, backdrop);
+            } else {
+                currentPixel = buffer[x | layer1];
+                if ((currentPixel & 0x2000000) == 0) {
+                    lowerPixel = firstOpaqueBG(x, layer2, backdrop);
+                } else {
+                    currentPixel = firstOpaqueBG(x, layer2, backdrop);
+                }
             }
+            buffer[x] = colorEffectsRenderer.processPixelNormal(lowerPixel, currentPixel);
+        }
+    }
 
-            // OBJ (sprites)
-            if (hasSprites) {
-                int[] result = compositeLayer(xStart | 0x500, currentPixel, lowerPixel);
-                currentPixel = result[0];
-                lowerPixel = result[1];
-
-                // Handle sprite semi-transparency
-                if ((currentPixel & 0x400000) == 0) {
-                    // Normal sprite - no special handling needed
-                    buffer[xStart] = currentPixel;
+    public void renderBG4WithEffects(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        int layer0 = layerOffsets[0];
+        int layer1 = layerOffsets[1];
+        int layer2 = layerOffsets[2];
+        int layer3 = layerOffsets[3];
+        for (int x = xStart; x < xEnd; x++) {
+            // Front most opaque BG pixel, then the next one behind it
+            int lowerPixel = backdrop;
+            int currentPixel = buffer[x | layer0];
+            if ((currentPixel & 0x2000000) == 0) {
+                lowerPixel = firstOpaqueBG(x, layer1, layer2, layer3, backdrop);
+            } else {
+                currentPixel = buffer[x | layer1];
+                if ((currentPixel & 0x2000000) == 0) {
+                    lowerPixel = firstOpaqueBG(x, layer2, layer3, backdrop);
                 } else {
-                    // Semi-transparent sprite - must handle blending
-                    buffer[xStart] = colorEffectsRenderer.processPixelSprite(lowerPixel, currentPixel);
+                    currentPixel = buffer[x | layer2];
+                    if ((currentPixel & 0x2000000) == 0) {
+                        lowerPixel = firstOpaqueBG(x, layer3, backdrop);
+                    } else {
+                        currentPixel = firstOpaqueBG(x, layer3, backdrop);
+                    }
                 }
-            } else {
-                // No sprites - just write the pixel
-                buffer[xStart] = currentPixel;
             }
+            buffer[x] = colorEffectsRenderer.processPixelNormal(lowerPixel, currentPixel);
         }
     }
 
-    private void renderScanLineWithEffects(int layers) {
+    public void renderOBJ0Normal(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
         int backdrop = gfx.backdrop;
-
-        // Handle the simple no-layer case
-        if (layers == 0) {
-            for (int xStart = 0; xStart < 240; xStart++) {
-                buffer[xStart] = colorEffectsRenderer.processPixelNormal(0, backdrop);
-            }
-            return;
+        for (int x = xStart; x < xEnd; x++) {
+            buffer[x] = compositeSpriteNormal(buffer[x | 0x500], backdrop, backdrop);
         }
+    }
 
-        // Check if we have sprites
-        boolean hasSprites = (layers & 0x10) != 0;
+    public void renderOBJ1Normal(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        int layer0 = layerOffsets[0];
+        for (int x = xStart; x < xEnd; x++) {
+            buffer[x] = compositeSpriteNormal(buffer[x | 0x500], firstOpaqueBG(x, layer0, backdrop), backdrop);
+        }
+    }
 
-        for (int xStart = 0; xStart < 240; xStart++) {
-            int currentPixel = backdrop;
+    public void renderOBJ2Normal(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        int layer0 = layerOffsets[0];
+        int layer1 = layerOffsets[1];
+        for (int x = xStart; x < xEnd; x++) {
+            // Front most opaque BG pixel, then the next one behind it
             int lowerPixel = backdrop;
-
-            // Composite layers from back to front based on priority
-            // BG3
-            if ((layers & 0x8) != 0) {
-                int[] result = compositeLayer(xStart | 0x400, currentPixel, lowerPixel);
-                currentPixel = result[0];
-                lowerPixel = result[1];
+            int currentPixel = buffer[x | layer0];
+            if ((currentPixel & 0x2000000) == 0) {
+                lowerPixel = firstOpaqueBG(x, layer1, backdrop);
+            } else {
+                currentPixel = firstOpaqueBG(x, layer1, backdrop);
             }
+            buffer[x] = compositeSpriteNormal(buffer[x | 0x500], currentPixel, lowerPixel);
+        }
+    }
 
-            // BG2
-            if ((layers & 0x4) != 0) {
-                int[] result = compositeLayer(xStart | 0x300, currentPixel, lowerPixel);
-                currentPixel = result[0];
-                lowerPixel = result[1];
+    public void renderOBJ3Normal(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        int layer0 = layerOffsets[0];
+        int layer1 = layerOffsets[1];
+        int layer2 = layerOffsets[2];
+        for (int x = xStart; x < xEnd; x++) {
+            // Front most opaque BG pixel, then the next one behind it
+            int lowerPixel = backdrop;
+            int currentPixel = buffer[x | layer0];
+            if ((currentPixel & 0x2000000) == 0) {
+                lowerPixel = firstOpaqueBG(x, layer1, layer2, backdrop);
+            } else {
+                currentPixel = buffer[x | layer1];
+                if ((currentPixel & 0x2000000) == 0) {
+                    lowerPixel = firstOpaqueBG(x, layer2, backdrop);
+                } else {
+                    currentPixel = firstOpaqueBG(x, layer2, backdrop);
+                }
             }
+            buffer[x] = compositeSpriteNormal(buffer[x | 0x500], currentPixel, lowerPixel);
+        }
+    }
 
-            // BG1
-            if ((layers & 0x2) != 0) {
-                int[] result = compositeLayer(xStart | 0x200, currentPixel, lowerPixel);
-                currentPixel = result[0];
-                lowerPixel = result[1];
+    public void renderOBJ4Normal(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        int layer0 = layerOffsets[0];
+        int layer1 = layerOffsets[1];
+        int layer2 = layerOffsets[2];
+        int layer3 = layerOffsets[3];
+        for (int x = xStart; x < xEnd; x++) {
+            // Front most opaque BG pixel, then the next one behind it
+            int lowerPixel = backdrop;
+            int currentPixel = buffer[x | layer0];
+            if ((currentPixel & 0x2000000) == 0) {
+                lowerPixel = firstOpaqueBG(x, layer1, layer2, layer3, backdrop);
+            } else {
+                currentPixel = buffer[x | layer1];
+                if ((currentPixel & 0x2000000) == 0) {
+                    lowerPixel = firstOpaqueBG(x, layer2, layer3, backdrop);
+                } else {
+                    currentPixel = buffer[x | layer2];
+                    if ((currentPixel & 0x2000000) == 0) {
+                        lowerPixel = firstOpaqueBG(x, layer3, backdrop);
+                    } else {
+                        currentPixel = firstOpaqueBG(x, layer3, backdrop);
+                    }
+                }
             }
+            buffer[x] = compositeSpriteNormal(buffer[x | 0x500], currentPixel, lowerPixel);
+        }
+    }
 
-            // BG0
-            if ((layers & 0x1) != 0) {
-                int[] result = compositeLayer(xStart | 0x100, currentPixel, lowerPixel);
-                currentPixel = result[0];
-                lowerPixel = result[1];
-            }
+    public void renderOBJ0WithEffects(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        for (int x = xStart; x < xEnd; x++) {
+            buffer[x] = compositeSpriteWithEffects(buffer[x | 0x500], backdrop, backdrop);
+        }
+    }
+
+    public void renderOBJ1WithEffects(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        int layer0 = layerOffsets[0];
+        for (int x = xStart; x < xEnd; x++) {
+            buffer[x] = compositeSpriteWithEffects(buffer[x | 0x500], firstOpaqueBG(x, layer0, backdrop), backdrop);
+        }
+    }
 
-            // OBJ (sprites)
-            if (hasSprites) {
-                int[] result = compositeLayer(xStart | 0x500, currentPixel, lowerPixel);
-                currentPixel = result[0];
-                lowerPixel = result[1];
+    public void renderOBJ2WithEffects(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        int layer0 = layerOffsets[0];
+        int layer1 = layerOffsets[1];
+        for (int x = xStart; x < xEnd; x++) {
+            // Front most opaque BG pixel, then the next one behind it
+            int lowerPixel = backdrop;
+            int currentPixel = buffer[x | layer0];
+            if ((currentPixel & 0x2000000) == 0) {
+                lowerPixel = firstOpaqueBG(x, layer1, backdrop);
+            } else {
+                currentPixel = firstOpaqueBG(x, layer1, backdrop);
+            }
+            buffer[x] = compositeSpriteWithEffects(buffer[x | 0x500], currentPixel, lowerPixel);
+        }
+    }
 
-                // Handle sprite with effects
-                if ((currentPixel & 0x400000) == 0) {
-                    // Normal sprite with color effects
-                    buffer[xStart] = colorEffectsRenderer.processPixelNormal(lowerPixel, currentPixel);
+    public void renderOBJ3WithEffects(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        int layer0 = layerOffsets[0];
+        int layer1 = layerOffsets[1];
+        int layer2 = layerOffsets[2];
+        for (int x = xStart; x < xEnd; x++) {
+            // Front most opaque BG pixel, then the next one behind it
+            int lowerPixel = backdrop;
+            int currentPixel = buffer[x | layer0];
+            if ((currentPixel & 0x2000000) == 0) {
+                lowerPixel = firstOpaqueBG(x, layer1, layer2, backdrop);
+            } else {
+                currentPixel = buffer[x | layer1];
+                if ((currentPixel & 0x2000000) == 0) {
+                    lowerPixel = firstOpaqueBG(x, layer2, backdrop);
                 } else {
-                    // Semi-transparent sprite
-                    buffer[xStart] = colorEffectsRenderer.processPixelSprite(lowerPixel, currentPixel);
+                    currentPixel = firstOpaqueBG(x, layer2, backdrop);
                 }
+            }
+            buffer[x] = compositeSpriteWithEffects(buffer[x | 0x500], currentPixel, lowerPixel);
+        }
+    }
+
+    public void renderOBJ4WithEffects(int xStart, int xEnd, int[] layerOffsets) {
+        int[] buffer = this.buffer;
+        int backdrop = gfx.backdrop;
+        int layer0 = layerOffsets[0];
+        int layer1 = layerOffsets[1];
+        int layer2 = layerOffsets[2];
+        int layer3 = layerOffsets[3];
+        for (int x = xStart; x < xEnd; x++) {
+            // Front most opaque BG pixel, then the next one behind it
+            int lowerPixel = backdrop;
+            int currentPixel = buffer[x | layer0];
+            if ((currentPixel & 0x2000000) == 0) {
+                lowerPixel = firstOpaqueBG(x, layer1, layer2, layer3, backdrop);
             } else {
-                // No sprites - apply color effects
-                buffer[xStart] = colorEffectsRenderer.processPixelNormal(lowerPixel, currentPixel);
+                currentPixel = buffer[x | layer1];
+                if ((currentPixel & 0x2000000) == 0) {
+                    lowerPixel = firstOpaqueBG(x, layer2, layer3, backdrop);
+                } else {
+                    currentPixel = buffer[x | layer2];
+                    if ((currentPixel & 0x2000000) == 0) {
+                        lowerPixel = firstOpaqueBG(x, layer3, backdrop);
+                    } else {
+                        currentPixel = firstOpaqueBG(x, layer3, backdrop);
+                    }
+                }
             }
+            buffer[x] = compositeSpriteWithEffects(buffer[x | 0x500], currentPixel, lowerPixel);
         }
     }
 
     /**
-     * Composite a layer with priority checking.
-     * Pixels have priority encoded in bits 25-23 (0x3800000 for working, 0x1800000 for current/lower).
-     * Bit 25 (0x2000000) indicates transparent pixel.
-     *
-     * @param offset Buffer offset for the layer to composite
-     * @param currentPixel Current top pixel
-     * @param lowerPixel Current second pixel
-     * @return Array of [newCurrentPixel, newLowerPixel]
+     * Front most opaque pixel of the given BG layers, front to back, or the backdrop when
+     * they are all transparent. The layers behind the first opaque pixel are not read.
      */
-    private int[] compositeLayer(int offset, int currentPixel, int lowerPixel) {
-        int workingPixel = buffer[offset];
+    public int firstOpaqueBG(int x, int layer0, int backdrop) {
+        int workingPixel = buffer[x | layer0];
+        if ((workingPixel & 0x2000000) == 0) {
+            return workingPixel;
+        }
+        return backdrop;
+    }
 
-        // Skip transparent pixels (bit 25 set)
-        if ((workingPixel & 0x2000000) != 0) {
-            return new int[]{currentPixel, lowerPixel};
+    public int firstOpaqueBG(int x, int layer0, int layer1, int backdrop) {
+        int workingPixel = buffer[x | layer0];
+        if ((workingPixel & 0x2000000) == 0) {
+            return workingPixel;
+        }
+        workingPixel = buffer[x | layer1];
+        if ((workingPixel & 0x2000000) == 0) {
+            return workingPixel;
         }
+        return backdrop;
+    }
+
+    public int firstOpaqueBG(int x, int layer0, int layer1, int layer2, int backdrop) {
+        int workingPixel = buffer[x | layer0];
+        if ((workingPixel & 0x2000000) == 0) {
+            return workingPixel;
+        }
+        workingPixel = buffer[x | layer1];
+        if ((workingPixel & 0x2000000) == 0) {
+            return workingPixel;
+        }
+        workingPixel = buffer[x | layer2];
+        if ((workingPixel & 0x2000000) == 0) {
+            return workingPixel;
+        }
+        return backdrop;
+    }
+
+    public int firstOpaqueBG(int x, int layer0, int layer1, int layer2, int layer3, int backdrop) {
+        int workingPixel = buffer[x | layer0];
+        if ((workingPixel & 0x2000000) == 0) {
+            return workingPixel;
+        }
+        workingPixel = buffer[x | layer1];
+        if ((workingPixel & 0x2000000) == 0) {
+            return workingPixel;
+        }
+        workingPixel = buffer[x | layer2];
+        if ((workingPixel & 0x2000000) == 0) {
+            return workingPixel;
+        }
+        workingPixel = buffer[x | layer3];
+        if ((workingPixel & 0x2000000) == 0) {
+            return workingPixel;
+        }
+        return backdrop;
+    }
 
-        // Check if working pixel has higher priority (lower value) than current
-        if ((workingPixel & 0x3800000) <= (currentPixel & 0x1800000)) {
-            // Working pixel becomes new current, current becomes new lower
+    /**
+     * Merge the sprite pixel into the top and lower BG pixels by its own priority, winning
+     * ties, and resolve the output pixel without effects.
+     */
+    public int compositeSpriteNormal(int spritePixel, int currentPixel, int lowerPixel) {
+        if ((spritePixel & 0x3800000) <= (currentPixel & 0x1800000)) {
             lowerPixel = currentPixel;
-            currentPixel = workingPixel;
+            currentPixel = spritePixel;
+        } else if ((spritePixel & 0x3800000) <= (lowerPixel & 0x1800000)) {
+            lowerPixel = spritePixel;
         }
-        // Check if working pixel should be the new lower pixel
-        else if ((workingPixel & 0x3800000) <= (lowerPixel & 0x1800000)) {
-            lowerPixel = workingPixel;
+        if ((currentPixel & 0x400000) == 0) {
+            return currentPixel;
         }
+        // Semi-transparent sprite
+        return colorEffectsRenderer.processPixelSprite(lowerPixel, currentPixel);
+    }
 
-        return new int[]{currentPixel, lowerPixel};
+    /**
+     * compositeSpriteNormal with color effects on the non semi-transparent pixels.
+     */
+    public int compositeSpriteWithEffects(int spritePixel, int currentPixel, int lowerPixel) {
+        if ((spritePixel & 0x3800000) <= (currentPixel & 0x1800000)) {
+            lowerPixel = currentPixel;
+            currentPixel = spritePixel;
+        } else if ((spritePixel & 0x3800000) <= (lowerPixel & 0x1800000)) {
+            lowerPixel = spritePixel;
+        }
+        if ((currentPixel & 0x400000) == 0) {
+            return colorEffectsRenderer.processPixelNormal(lowerPixel, currentPixel);
+        }
+        return colorEffectsRenderer.processPixelSprite(lowerPixel, currentPixel);
     }
 }
@@ -0,0 +1,139 @@
+package com.iodine.gba.graphics;
+
+import java.util.Random;
+
+/**
+ * GameBoyAdvanceCompositorCheck - Equivalence check for the compositor span kernels
+ *
+ * Composites random line buffers through every span kernel, for random BG priorities,
+ * spans and BLDCNT/BLDALPHA/BLDY settings, and compares each pixel with a plain per pixel
+ * reference of the layer priority rules. The vector kernels, when they load, are checked
+ * the same way. Run with
+ * java --add-modules jdk.incubator.vector -cp bin com.iodine.gba.graphics.GameBoyAdvanceCompositorCheck
+ * or without --add-modules for the scalar kernels alone.
+ */
+public class GameBoyAdvanceCompositorCheck {
+    public GameBoyAdvanceRenderer gfx;
+    public int[] buffer;
+    public GameBoyAdvanceColorEffectsRenderer colorEffectsRenderer;
+    public Random random;
+
+    public GameBoyAdvanceCompositorCheck(long seed) {
+        gfx = new GameBoyAdvanceRenderer(null);
+        buffer = new int[0x680];
+        colorEffectsRenderer = new GameBoyAdvanceColorEffectsRenderer(buffer);
+        random = new Random(seed);
+    }
+
+    public static void main(String[] args) {
+        GameBoyAdvanceCompositorCheck check = new GameBoyAdvanceCompositorCheck(0x10D1E);
+        GameBoyAdvanceCompositor compositor = check.createCompositor();
+        compositor.generateScalarSpanRenderers();
+        boolean scalarMatches = check.matchesReference(compositor, 0x400);
+        System.out.println("Scalar kernels: " + (scalarMatches ? "match" : "MISMATCH"));
+        boolean vectorMatches = true;
+        if (GameBoyAdvanceCompositor.vectorBackend != null) {
+            compositor = check.createCompositor();
+            compositor.generateScalarSpanRenderers();
+            GameBoyAdvanceCompositor.vectorBackend.generateSpanRenderers(compositor);
+            vectorMatches = check.matchesReference(compositor, 0x400);
+            System.out.println("Vector kernels: " + (vectorMatches ? "match" : "MISMATCH"));
+        } else if (GameBoyAdvanceCompositor.vectorBackendError != null) {
+            System.out.println("Vector kernels failed to load: " + GameBoyAdvanceCompositor.vectorBackendError);
+            vectorMatches = false;
+        } else {
+            System.out.println("Vector kernels: not available");
+        }
+        if (!scalarMatches || !vectorMatches) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * A compositor on this check's line buffer, without span kernels yet.
+     */
+    public GameBoyAdvanceCompositor createCompositor() {
+        GameBoyAdvanceCompositor compositor = new GameBoyAdvanceCompositor(gfx);
+        compositor.buffer = buffer;
+        compositor.colorEffectsRenderer = colorEffectsRenderer;
+        return compositor;
+    }
+
+    /**
+     * Run every span kernel of the compositor on the given number of random lines.
+     */
+    public boolean matchesReference(GameBoyAdvanceCompositor compositor, int trials) {
+        int[] BGPriority = new int[4];
+        for (int trial = 0; trial < trials; trial++) {
+            randomizeLine(compositor, BGPriority);
+            for (int index = 0; index < 0x40; index++) {
+                int xStart = random.nextInt(240);
+                int xEnd = xStart + random.nextInt(241 - xStart);
+                for (int x = 0; x < 240; x++) {
+                    buffer[x] = ~buffer[x];
+                }
+                compositor.renderSpan(xStart, xEnd, index, index & 0x20);
+                for (int x = xStart; x < xEnd; x++) {
+                    if (buffer[x] != referencePixel(x, index & 0x1F, (index & 0x20) != 0, BGPriority)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    public void randomizeLine(GameBoyAdvanceCompositor compositor, int[] BGPriority) {
+        for (int index = 0x100; index < 0x680; index++) {
+            buffer[index] = random.nextInt() & 0x3FFFFFF;
+        }
+        gfx.backdrop = random.nextInt() & 0x3FFFFFF;
+        colorEffectsRenderer.writeBLDCNT16(random.nextInt());
+        colorEffectsRenderer.writeBLDALPHA16(random.nextInt());
+        colorEffectsRenderer.writeBLDY8(random.nextInt());
+        for (int layer = 0; layer < 4; layer++) {
+            BGPriority[layer] = random.nextInt(4);
+            compositor.priorityPreprocess(layer, BGPriority[layer]);
+        }
+    }
+
+    /**
+     * The composited pixel, found by walking the layers in priority order.
+     */
+    public int referencePixel(int x, int layers, boolean doEffects, int[] BGPriority) {
+        int currentPixel = gfx.backdrop;
+        int lowerPixel = gfx.backdrop;
+        int found = 0;
+        for (int priority = 0; priority < 4; priority++) {
+            for (int layer = 0; layer < 4; layer++) {
+                if ((layers & (1 << layer)) != 0 && BGPriority[layer] == priority) {
+                    int workingPixel = buffer[x | ((layer + 1) << 8)];
+                    if ((workingPixel & 0x2000000) == 0) {
+                        if (found == 0) {
+                            currentPixel = workingPixel;
+                        } else if (found == 1) {
+                            lowerPixel = workingPixel;
+                        }
+                        found++;
+                    }
+                }
+            }
+        }
+        if ((layers & 0x10) != 0) {
+            int workingPixel = buffer[x | 0x500];
+            if ((workingPixel & 0x3800000) <= (currentPixel & 0x1800000)) {
+                lowerPixel = currentPixel;
+                currentPixel = workingPixel;
+            } else if ((workingPixel & 0x3800000) <= (lowerPixel & 0x1800000)) {
+                lowerPixel = workingPixel;
+            }
+            if ((currentPixel & 0x400000) != 0) {
+                return colorEffectsRenderer.processPixelSprite(lowerPixel, currentPixel);
+            }
+        }
+        if (doEffects) {
+            return colorEffectsRenderer.processPixelNormal(lowerPixel, currentPixel);
+        }
+        return currentPixel;
+    }
+}
@@ -1,6 +1,7 @@
 package com.iodine.gba.graphics;
 
 import com.iodine.gba.core.GameBoyAdvanceIO;
+import com.iodine.gba.core.GameBoyAdvanceScheduler;
 import com.iodine.gba.memory.*;
 
 /**
@@ -14,6 +15,7 @@ public class GameBoyAdvanceGraphics {
     public GameBoyAdvanceDMA3 dmaChannel3;
     public com.iodine.gba.core.GameBoyAdvanceIRQ irq;
     public GameBoyAdvanceWait wait;
+    public GameBoyAdvanceScheduler scheduler;
 
     // State
     public boolean renderedScanLine;
@@ -21,7 +23,7 @@ public class GameBoyAdvanceGraphics {
     public int IRQFlags;
     public int VCounter;
     public int currentScanLine;
-    public int LCDTicks;
+    public long lineStartTime;  // Global clock at LCD tick 0 of the current line
 
     public GameBoyAdvanceGraphics(GameBoyAdvanceIO ioCore) {
         this.IOCore = ioCore;
@@ -33,6 +35,11 @@ public class GameBoyAdvanceGraphics {
         dmaChannel3 = IOCore.dmaChannel3;
         irq = IOCore.irq;
         wait = IOCore.wait;
+        scheduler = IOCore.scheduler;
+        // The LCD state machine only advances on its own scheduled events
+        scheduler.registerHandler(GameBoyAdvanceScheduler.EVENT_LCD_RENDER, time -> clockScanLine());
+        scheduler.registerHandler(GameBoyAdvanceScheduler.EVENT_HBLANK, time -> updateHBlank());
+        scheduler.registerHandler(GameBoyAdvanceScheduler.EVENT_LCD_LINE, this::clockLCDNextLine);
         initializeState();
     }
 
@@ -43,24 +50,22 @@ public class GameBoyAdvanceGraphics {
         IRQFlags = 0;
         VCounter = 0;
         currentScanLine = 0;
-        LCDTicks = 0;
         if (IOCore.SKIPBoot) {
             // BIOS entered the ROM at line 0x7C
             currentScanLine = 0x7C;
         }
+        scheduleLineEvents(scheduler.clock);
     }
 
-    public void addClocks(int clocks) {
-        // Call this when clocking the state some more
-        LCDTicks = LCDTicks + clocks;
-        clockLCDState();
+    public void scheduleLineEvents(long time) {
+        lineStartTime = time;
+        scheduler.schedule(GameBoyAdvanceScheduler.EVENT_LCD_RENDER, time + 960);   // Line finishes drawing at clock 960
+        scheduler.schedule(GameBoyAdvanceScheduler.EVENT_HBLANK, time + 1006);      // HBlank starts at clock 1006
+        scheduler.schedule(GameBoyAdvanceScheduler.EVENT_LCD_LINE, time + 1232);    // Next line at clock 1232
     }
 
-    public void clockLCDState() {
-        if (LCDTicks >= 960) {
-            clockScanLine();              // Line finishes drawing at clock 960
-            clockLCDStatePostRender();    // Check for hblank and clocking into next line
-        }
+    public int getLCDTicks() {
+        return (int) (IOCore.getCurrentTime() - lineStartTime);
     }
 
     public void clockScanLine() {
@@ -72,23 +77,12 @@ public class GameBoyAdvanceGraphics {
         }
     }
 
-    public void clockLCDStatePostRender() {
-        if (LCDTicks >= 1006) {
-            // HBlank Event Occurred
-            updateHBlank();
-            if (LCDTicks >= 1232) {
-                // Clocking to next line occurred
-                clockLCDNextLine();
-            }
-        }
-    }
-
-    public void clockLCDNextLine() {
+    public void clockLCDNextLine(long time) {
         // We've now overflowed the LCD scan line state machine counter
         renderedScanLine = false;                 // Unmark line render
         statusFlags = statusFlags & 0x5;          // Un-mark HBlank
-        // De-clock for starting on new scan-line
-        LCDTicks = LCDTicks - 1232;               // We start out at the beginning of the next line
+        // Queue the events of the new line, which starts at the event time
+        scheduleLineEvents(time);
         // Increment scanline counter
         currentScanLine = currentScanLine + 1;    // Increment to the next scan line
         // Handle switching in/out of vblank
@@ -114,8 +108,6 @@ public class GameBoyAdvanceGraphics {
         }
         checkVCounter();                          // We're on a new scan line, so check the VCounter for match
         isRenderingCheckPreprocess();             // Update a check value
-        // Recursive clocking of the LCD state
-        clockLCDState();
     }
 
     public void updateHBlank() {
@@ -152,7 +144,7 @@ public class GameBoyAdvanceGraphics {
     }
 
     public int nextHBlankEventTime() {
-        int time = LCDTicks;
+        int time = getLCDTicks();
         if (time < 1006) {
             // Haven't reached hblank yet, so hblank offset - current
             time = 1006 - time;
@@ -193,13 +185,13 @@ public class GameBoyAdvanceGraphics {
         // Convert line count to clocks
         nextEventTime = convertScanlineToClocks(nextEventTime);
         // Subtract scanline offset from clocks
-        nextEventTime = nextEventTime - LCDTicks;
+        nextEventTime = nextEventTime - getLCDTicks();
         return nextEventTime;
     }
 
     public int nextHBlankDMAEventTime() {
         int nextEventTime = nextHBlankEventTime();
-        if (currentScanLine > 159 || (currentScanLine == 159 && LCDTicks >= 1006)) {
+        if (currentScanLine > 159 || (currentScanLine == 159 && getLCDTicks() >= 1006)) {
             // No HBlank DMA in VBlank
             int linesToSkip = 227 - currentScanLine;
             linesToSkip = convertScanlineToClocks(linesToSkip);
@@ -217,7 +209,7 @@ public class GameBoyAdvanceGraphics {
                 nextEventTime = nextEventTime + 228;
             }
             nextEventTime = convertScanlineToClocks(nextEventTime);
-            nextEventTime = nextEventTime - LCDTicks;
+            nextEventTime = nextEventTime - getLCDTicks();
         }
         return nextEventTime;
     }
@@ -227,14 +219,13 @@ public class GameBoyAdvanceGraphics {
         if (currentScanLine >= 161 || delay != 0) {
             // Skip to line 2 metrics
             nextEventTime = 230 - currentScanLine;
-            nextEventTime = convertScanlineToClocks(nextEventTime);
-            nextEventTime = nextEventTime - LCDTicks;
+            nextEventTime = convertScanlineToClocks(nextEventTime) - getLCDTicks();
         } else if (currentScanLine == 0) {
             // Doesn't start until line 2
-            nextEventTime = 2464 - LCDTicks;
+            nextEventTime = 2464 - getLCDTicks();
         } else {
             // Line 2 through line 161
-            nextEventTime = 1232 - LCDTicks;
+            nextEventTime = 1232 - getLCDTicks();
         }
         return nextEventTime;
     }
@@ -1,5 +1,7 @@
 package com.iodine.gba.graphics;
 
+import java.util.Arrays;
+
 /**
  * GameBoyAdvanceMosaicRenderer - Mosaic effect renderer (converted from Mosaic.js)
  * Copyright (C) 2012-2015 Grant Galitz
@@ -7,6 +9,9 @@ package com.iodine.gba.graphics;
  * The mosaic effect creates a pixelated/blocky appearance by repeating pixels
  * in a grid pattern. The GBA supports separate mosaic settings for backgrounds
  * and sprites, with configurable horizontal and vertical sizes.
+ *
+ * Horizontal mosaic samples once per block and fills the rest of the block as a run. The
+ * vertical mapping of every scanline is tabulated on MOSAIC writes and read by all layers.
  */
 public class GameBoyAdvanceMosaicRenderer {
     public int[] buffer;
@@ -19,78 +24,69 @@ public class GameBoyAdvanceMosaicRenderer {
     public int OBJMosaicHSize;  // Horizontal size for sprites
     public int OBJMosaicVSize;  // Vertical size for sprites
 
+    // Lines back to the first line of the mosaic block, per scanline
+    public int[] BGMosaicYOffset = new int[160];
+    public int[] OBJMosaicYOffset = new int[160];
+
     public GameBoyAdvanceMosaicRenderer(int[] buffer) {
         this.buffer = buffer;
         this.BGMosaicHSize = 0;
         this.BGMosaicVSize = 0;
         this.OBJMosaicHSize = 0;
         this.OBJMosaicVSize = 0;
+        updateYOffsets();
     }
 
     /**
      * Render horizontal mosaic effect on a background layer.
-     * Repeats pixels horizontally based on the mosaic size setting.
+     * Repeats the first pixel of every block over the block.
      *
      * @param offset Buffer offset for the layer to process
      */
     public void renderMosaicHorizontal(int offset) {
         int mosaicBlur = BGMosaicHSize + 1;
         if (mosaicBlur > 1) {  // Don't perform useless loop if mosaic disabled
-            int currentPixel = 0;
-            for (int position = 0; position < 240; position++) {
-                if ((position % mosaicBlur) == 0) {
-                    // Start of a new mosaic block - sample the pixel
-                    currentPixel = buffer[position | offset];
-                } else {
-                    // Inside a mosaic block - repeat the sampled pixel
-                    buffer[position | offset] = currentPixel;
-                }
+            for (int position = 0; position < 240; position += mosaicBlur) {
+                Arrays.fill(buffer, offset + position + 1, offset + Math.min(position + mosaicBlur, 240), buffer[offset + position]);
             }
         }
     }
 
     /**
-     * Render horizontal mosaic effect on sprites.
-     * Works similarly to background mosaic but with sprite-specific settings.
+     * Render horizontal mosaic effect on a sprite line.
+     * Blocks are aligned to the sprite's x coordinate modulo the block size, taken as a
+     * non-negative remainder for sprites hanging off the left edge; the positions before the
+     * first whole block are cleared.
      *
+     * @param spriteBuffer The sprite's line, position 0 at the sprite's left edge
      * @param xOffset Horizontal offset of the sprite
      * @param xSize Width of the sprite
+     * @param transparent Pixel value the partial first block is cleared with
      */
-    public void renderOBJMosaicHorizontal(int xOffset, int xSize) {
+    public void renderOBJMosaicHorizontal(int[] spriteBuffer, int xOffset, int xSize, int transparent) {
         int mosaicBlur = OBJMosaicHSize + 1;
         if (mosaicBlur > 1) {  // Don't perform useless loop if mosaic disabled
-            int currentPixel = 0x3800000;  // Transparent
-            // Start at the mosaic-aligned position
-            for (int position = xOffset % mosaicBlur; position < xSize; position++) {
-                if ((position % mosaicBlur) == 0) {
-                    // Start of a new mosaic block - sample the pixel
-                    currentPixel = buffer[position | 0x600];
-                }
-                // Always write (even at block start) to apply mosaic
-                buffer[position | 0x600] = currentPixel;
+            int position = Math.floorMod(xOffset, mosaicBlur);
+            if (position > 0) {
+                Arrays.fill(spriteBuffer, Math.min(position, xSize), Math.min(mosaicBlur, xSize), transparent);
+                position = mosaicBlur;
+            } else {
+                position = 0;
+            }
+            for (; position < xSize; position += mosaicBlur) {
+                Arrays.fill(spriteBuffer, position + 1, Math.min(position + mosaicBlur, xSize), spriteBuffer[position]);
             }
         }
     }
 
     /**
-     * Get the vertical mosaic offset for backgrounds.
-     * Returns how many lines back to sample from for the mosaic effect.
-     *
-     * @param line Current scanline
-     * @return Offset in lines (0 = use current line, >0 = use earlier line)
+     * Tabulate the vertical mosaic mapping of every scanline.
      */
-    public int getMosaicYOffset(int line) {
-        return line % (BGMosaicVSize + 1);
-    }
-
-    /**
-     * Get the vertical mosaic offset for sprites.
-     *
-     * @param line Current scanline
-     * @return Offset in lines
-     */
-    public int getOBJMosaicYOffset(int line) {
-        return line % (OBJMosaicVSize + 1);
+    public void updateYOffsets() {
+        for (int line = 0; line < 160; line++) {
+            BGMosaicYOffset[line] = line % (BGMosaicVSize + 1);
+            OBJMosaicYOffset[line] = line % (OBJMosaicVSize + 1);
+        }
     }
 
     // Register write methods
@@ -102,6 +98,7 @@ public class GameBoyAdvanceMosaicRenderer {
     public void writeMOSAIC8_0(int data) {
         BGMosaicHSize = data & 0xF;
         BGMosaicVSize = data >> 4;
+        updateYOffsets();
     }
 
     /**
@@ -111,6 +108,7 @@ public class GameBoyAdvanceMosaicRenderer {
     public void writeMOSAIC8_1(int data) {
         OBJMosaicHSize = data & 0xF;
         OBJMosaicVSize = data >> 4;
+        updateYOffsets();
     }
 
     /**
@@ -122,5 +120,6 @@ public class GameBoyAdvanceMosaicRenderer {
         BGMosaicVSize = (data >> 4) & 0xF;
         OBJMosaicHSize = (data >> 8) & 0xF;
         OBJMosaicVSize = data >> 12;
+        updateYOffsets();
     }
 }
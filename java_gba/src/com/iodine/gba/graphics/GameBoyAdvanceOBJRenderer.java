@@ -14,6 +14,15 @@ import java.util.Arrays;
  * - Mosaic effects
  * - Object windows
  * - Cycle-accurate rendering limits
+ *
+ * Which sprites intersect each scanline is kept in a per line bitset of OAM numbers, so a
+ * line visits only its sprites, in OAM order. OAM writes that change a sprite's vertical
+ * extent, and OBJ mosaic height changes for mosaic sprites, mark the sprite dirty; dirty
+ * sprites are re-indexed before the next line is drawn.
+ *
+ * OAM is decoded once, on writes, into a single int array holding one run of 128 entries
+ * per attribute, so the render loop reads flat arrays and a copy of OAMRAM and OAMTable
+ * captures the whole sprite state.
  */
 public class GameBoyAdvanceOBJRenderer {
     public GameBoyAdvanceRenderer gfx;
@@ -23,11 +32,8 @@ public class GameBoyAdvanceOBJRenderer {
     public java.nio.ShortBuffer OAMRAM16;
     public java.nio.IntBuffer OAMRAM32;
 
-    // OAM attribute table (128 sprites)
-    public OAMEntry[] OAMTable;
-
-    // Matrix transformation parameters (for affine sprites)
-    public int[] OBJMatrixParameters;
+    // Decoded attributes of the 128 sprites, laid out as described by the offsets below
+    public int[] OAMTable;
 
     // Scratch buffers
     public int[] buffer;
@@ -43,6 +49,13 @@ public class GameBoyAdvanceOBJRenderer {
     public byte[] VRAM;
     public java.nio.IntBuffer VRAM32;
 
+    // Sprites intersecting each scanline, two 64-bit words of OAM numbers per line
+    public long[] lineSprites;
+    // Sprites whose line membership has to be recomputed
+    public long[] dirtySprites;
+    // OBJ mosaic height the mosaic sprites were indexed with
+    public int lineSpritesMosaicVSize;
+
     // Rendering state
     public int cyclesToRender;
     public int offset;  // Scratch buffer offset (0x500)
@@ -66,29 +79,35 @@ public class GameBoyAdvanceOBJRenderer {
         16, 32, 32, 64
     };
 
+    // Identity palette, the matrix sprite loops emit color indices through it for OBJ window sprites
+    public static final int[] OBJWINPalette = new int[0x100];
+    static {
+        for (int index = 0; index < 0x100; index++) {
+            OBJWINPalette[index] = index;
+        }
+    }
+
     // Reference to mosaic renderer
     public GameBoyAdvanceMosaicRenderer mosaicRenderer;
 
-    /**
-     * OAM Entry - Sprite attributes
-     */
-    public static class OAMEntry {
-        public int ycoord;
-        public int matrix2D;
-        public int doubleSizeOrDisabled;
-        public int mode;
-        public int mosaic;
-        public int monolithicPalette;
-        public int shape;
-        public int xcoord;
-        public int matrixParameters;
-        public int horizontalFlip;
-        public int verticalFlip;
-        public int size;
-        public int tileNumber;
-        public int priority;
-        public int paletteNumber;
-    }
+    // Sprite attributes, decoded on OAM writes. One run of 128 ints per attribute, indexed by
+    // attribute | OAM number, followed by the sign extended matrix parameters.
+    public static final int YCOORD = 0x000;
+    public static final int MATRIX2D = 0x080;
+    public static final int DOUBLE_SIZE_OR_DISABLED = 0x100;
+    public static final int MODE = 0x180;
+    public static final int MOSAIC = 0x200;
+    public static final int MONOLITHIC_PALETTE = 0x280;
+    public static final int SHAPE = 0x300;
+    public static final int XCOORD = 0x380;
+    public static final int MATRIX_PARAMETERS = 0x400;
+    public static final int HORIZONTAL_FLIP = 0x480;
+    public static final int VERTICAL_FLIP = 0x500;
+    public static final int SIZE = 0x580;
+    public static final int TILE_NUMBER = 0x600;
+    public static final int PRIORITY = 0x680;
+    public static final int PALETTE_NUMBER = 0x700;
+    public static final int OBJ_MATRIX_PARAMETERS = 0x780;
 
     public GameBoyAdvanceOBJRenderer(GameBoyAdvanceRenderer gfx) {
         this.gfx = gfx;
@@ -116,13 +135,12 @@ public class GameBoyAdvanceOBJRenderer {
         scratchOBJBuffer = new int[128];
 
         // Initialize OAM table (128 sprites)
-        OAMTable = new OAMEntry[128];
-        for (int i = 0; i < 128; i++) {
-            OAMTable[i] = new OAMEntry();
-        }
+        OAMTable = new int[0x800];
 
-        // Initialize matrix parameters (for affine sprites)
-        OBJMatrixParameters = new int[0x80];
+        // Index every sprite before the first line
+        lineSprites = new long[160 << 1];
+        dirtySprites = new long[] {-1L, -1L};
+        lineSpritesMosaicVSize = mosaicRenderer.OBJMosaicVSize;
 
         // Default cycle limit
         cyclesToRender = 1210;
@@ -136,19 +154,102 @@ public class GameBoyAdvanceOBJRenderer {
     }
 
     /**
-     * Render loop - iterate through all sprites and draw visible ones.
+     * Render loop - iterate through the sprites on this line and draw them.
      */
     public void performRenderLoop(int line) {
         // Clear scratch buffers
         clearScratch();
 
-        // Render all sprites (128 max)
+        if ((dirtySprites[0] | dirtySprites[1]) != 0) {
+            updateLineSprites();
+        }
+
+        // Render the line's sprites in OAM order
         int cycles = cyclesToRender;
-        for (int objNumber = 0; objNumber < 0x80; objNumber++) {
-            cycles = renderSprite(line, OAMTable[objNumber], cycles);
+        for (int word = 0; word < 2; word++) {
+            long sprites = lineSprites[(line << 1) | word];
+            while (sprites != 0) {
+                int objNumber = (word << 6) | Long.numberOfTrailingZeros(sprites);
+                sprites &= sprites - 1;
+                cycles = renderSprite(line, objNumber, cycles);
+            }
+        }
+    }
+
+    /**
+     * Re-index the dirty sprites in the per line bitsets.
+     */
+    public void updateLineSprites() {
+        for (int word = 0; word < 2; word++) {
+            long sprites = dirtySprites[word];
+            dirtySprites[word] = 0;
+            while (sprites != 0) {
+                int bit = Long.numberOfTrailingZeros(sprites);
+                sprites &= sprites - 1;
+                long spriteMask = 1L << bit;
+                int objNumber = (word << 6) | bit;
+                int shape = OAMTable[SHAPE | objNumber];
+                int doubleSizeOrDisabled = OAMTable[DOUBLE_SIZE_OR_DISABLED | objNumber];
+                // Only the attributes fixed by OAM are checked here, isDrawable still runs per line
+                boolean drawable = OAMTable[MODE | objNumber] <= 2 && (doubleSizeOrDisabled == 0 || OAMTable[MATRIX2D | objNumber] != 0) && shape < 3;
+                int ySize = drawable ? lookupYSize[(shape << 2) | OAMTable[SIZE | objNumber]] << doubleSizeOrDisabled : 0;
+                for (int line = 0; line < 160; line++) {
+                    int index = (line << 1) | word;
+                    if (drawable && isOnLine(objNumber, line, ySize)) {
+                        lineSprites[index] |= spriteMask;
+                    } else {
+                        lineSprites[index] &= ~spriteMask;
+                    }
+                }
+            }
+        }
+    }
+
+    public void markSpriteDirty(int objNumber) {
+        dirtySprites[objNumber >> 6] |= 1L << (objNumber & 0x3F);
+    }
+
+    /**
+     * Called after MOSAIC writes, mosaic sprites move between lines with the OBJ mosaic height.
+     */
+    public void mosaicChanged() {
+        if (mosaicRenderer.OBJMosaicVSize != lineSpritesMosaicVSize) {
+            lineSpritesMosaicVSize = mosaicRenderer.OBJMosaicVSize;
+            for (int objNumber = 0; objNumber < 0x80; objNumber++) {
+                if (OAMTable[MOSAIC | objNumber] != 0) {
+                    markSpriteDirty(objNumber);
+                }
+            }
         }
     }
 
+    /**
+     * Sprite line being drawn on the given scanline, mosaic and wrap around applied.
+     */
+    public int spriteYOffset(int objNumber, int line, int ySize) {
+        if (OAMTable[MOSAIC | objNumber] != 0) {
+            // Correct line number for mosaic
+            line = line - mosaicRenderer.OBJMosaicYOffset[line];
+        }
+
+        // Obtain some offsets
+        int ycoord = OAMTable[YCOORD | objNumber];
+        int yOffset = line - ycoord;
+
+        // Overflow Correction:
+        // HW re-offsets any "negative" y-coord values to on-screen unsigned.
+        // Also a bug triggers this on 8-bit ending coordinate overflow from large sprites.
+        if (yOffset < 0 || (ycoord + ySize) > 0x100) {
+            yOffset = yOffset + 0x100;
+        }
+        return yOffset;
+    }
+
+    public boolean isOnLine(int objNumber, int line, int ySize) {
+        int yOffset = spriteYOffset(objNumber, line, ySize);
+        return (yOffset & (ySize - 1)) == yOffset;
+    }
+
     /**
      * Clear the scratch buffers to transparency.
      */
@@ -163,50 +264,39 @@ public class GameBoyAdvanceOBJRenderer {
     /**
      * Render a single sprite if it's visible on this scanline.
      */
-    public int renderSprite(int line, OAMEntry sprite, int cycles) {
-        if (isDrawable(sprite)) {
-            if (sprite.mosaic != 0) {
-                // Correct line number for mosaic
-                line = line - mosaicRenderer.getOBJMosaicYOffset(line);
-            }
+    public int renderSprite(int line, int objNumber, int cycles) {
+        if (isDrawable(objNumber)) {
+            int shapeAndSize = (OAMTable[SHAPE | objNumber] << 2) | OAMTable[SIZE | objNumber];
+            int doubleSizeOrDisabled = OAMTable[DOUBLE_SIZE_OR_DISABLED | objNumber];
 
             // Obtain horizontal size info
-            int xSize = lookupXSize[(sprite.shape << 2) | sprite.size] << sprite.doubleSizeOrDisabled;
+            int xSize = lookupXSize[shapeAndSize] << doubleSizeOrDisabled;
 
             // Obtain vertical size info
-            int ySize = lookupYSize[(sprite.shape << 2) | sprite.size] << sprite.doubleSizeOrDisabled;
+            int ySize = lookupYSize[shapeAndSize] << doubleSizeOrDisabled;
 
-            // Obtain some offsets
-            int ycoord = sprite.ycoord;
-            int yOffset = line - ycoord;
-
-            // Overflow Correction:
-            // HW re-offsets any "negative" y-coord values to on-screen unsigned.
-            // Also a bug triggers this on 8-bit ending coordinate overflow from large sprites.
-            if (yOffset < 0 || (ycoord + ySize) > 0x100) {
-                yOffset = yOffset + 0x100;
-            }
+            int yOffset = spriteYOffset(objNumber, line, ySize);
 
             // Make a sprite line
             int ySize_mask = ySize - 1;
             if ((yOffset & ySize_mask) == yOffset) {
                 // Compute clocks required to draw the sprite
-                cycles = computeCycles(cycles, sprite.matrix2D, xSize);
+                cycles = computeCycles(cycles, OAMTable[MATRIX2D | objNumber], xSize);
 
                 // If there's enough cycles, render
                 if (cycles >= 0) {
-                    switch (sprite.mode) {
+                    switch (OAMTable[MODE | objNumber]) {
                         case 0:
                             // Normal/Semi-transparent Sprite
-                            renderRegularSprite(sprite, xSize, ySize, yOffset);
+                            renderRegularSprite(objNumber, xSize, ySize, yOffset);
                             break;
                         case 1:
                             // Semi-transparent Sprite
-                            renderSemiTransparentSprite(sprite, xSize, ySize, yOffset);
+                            renderSemiTransparentSprite(objNumber, xSize, ySize, yOffset);
                             break;
                         case 2:
                             // OBJ-WIN Sprite
-                            renderOBJWINSprite(sprite, xSize, ySize, yOffset);
+                            renderOBJWINSprite(objNumber, xSize, ySize, yOffset);
                             break;
                     }
                 }
@@ -233,212 +323,217 @@ public class GameBoyAdvanceOBJRenderer {
     /**
      * Render a regular sprite.
      */
-    public void renderRegularSprite(OAMEntry sprite, int xSize, int ySize, int yOffset) {
-        if (sprite.matrix2D != 0) {
+    public void renderRegularSprite(int objNumber, int xSize, int ySize, int yOffset) {
+        if (OAMTable[MATRIX2D | objNumber] != 0) {
             // Scale & Rotation
-            renderMatrixSprite(sprite, xSize, ySize + 1, yOffset);
+            renderMatrixSprite(objNumber, xSize, ySize + 1, yOffset);
         } else {
             // Regular Scrolling
-            renderNormalSprite(sprite, xSize, ySize, yOffset);
+            renderNormalSprite(objNumber, xSize, ySize, yOffset);
         }
         // Copy OBJ scratch buffer to scratch line buffer
-        outputSpriteToScratch(sprite, xSize);
+        outputSpriteToScratch(objNumber, xSize);
     }
 
     /**
      * Render a semi-transparent sprite.
      */
-    public void renderSemiTransparentSprite(OAMEntry sprite, int xSize, int ySize, int yOffset) {
-        if (sprite.matrix2D != 0) {
+    public void renderSemiTransparentSprite(int objNumber, int xSize, int ySize, int yOffset) {
+        if (OAMTable[MATRIX2D | objNumber] != 0) {
             // Scale & Rotation
-            renderMatrixSprite(sprite, xSize, ySize + 1, yOffset);
+            renderMatrixSprite(objNumber, xSize, ySize + 1, yOffset);
         } else {
             // Regular Scrolling
-            renderNormalSprite(sprite, xSize, ySize, yOffset);
+            renderNormalSprite(objNumber, xSize, ySize, yOffset);
         }
         // Copy OBJ scratch buffer to scratch line buffer (semi-transparent)
-        outputSemiTransparentSpriteToScratch(sprite, xSize);
+        outputSemiTransparentSpriteToScratch(objNumber, xSize);
     }
 
     /**
      * Render an OBJ-WIN sprite (object window).
      */
-    public void renderOBJWINSprite(OAMEntry sprite, int xSize, int ySize, int yOffset) {
-        if (sprite.matrix2D != 0) {
+    public void renderOBJWINSprite(int objNumber, int xSize, int ySize, int yOffset) {
+        if (OAMTable[MATRIX2D | objNumber] != 0) {
             // Scale & Rotation
-            renderMatrixSpriteOBJWIN(sprite, xSize, ySize + 1, yOffset);
+            renderMatrixSpriteOBJWIN(objNumber, xSize, ySize + 1, yOffset);
         } else {
             // Regular Scrolling
-            renderNormalSpriteOBJWIN(sprite, xSize, ySize, yOffset);
+            renderNormalSpriteOBJWIN(objNumber, xSize, ySize, yOffset);
         }
         // Copy OBJ scratch buffer to scratch obj-window line buffer
-        outputSpriteToOBJWINScratch(sprite, xSize);
+        outputSpriteToOBJWINScratch(objNumber, xSize);
     }
 
     /**
      * Render a matrix (affine) sprite with rotation/scaling.
      */
-    public void renderMatrixSprite(OAMEntry sprite, int xSize, int ySize, int yOffset) {
-        int xDiff = -(xSize >> 1);
-        int yDiff = yOffset - (ySize >> 1);
-        int xSizeOriginal = xSize >> sprite.doubleSizeOrDisabled;
-        int xSizeFixed = xSizeOriginal << 8;
-        int ySizeOriginal = ySize >> sprite.doubleSizeOrDisabled;
-        int ySizeFixed = ySizeOriginal << 8;
-
-        // Get transformation matrix parameters
-        int dx = OBJMatrixParameters[sprite.matrixParameters];
-        int dmx = OBJMatrixParameters[sprite.matrixParameters + 1];
-        int dy = OBJMatrixParameters[sprite.matrixParameters + 2];
-        int dmy = OBJMatrixParameters[sprite.matrixParameters + 3];
-
-        // Compute starting position
-        int pa = dx * xDiff;
-        int pb = dmx * yDiff;
-        int pc = dy * xDiff;
-        int pd = dmy * yDiff;
-
-        int x = pa + pb + (xSizeFixed >> 1);
-        int y = pc + pd + (ySizeFixed >> 1);
-
-        // Render each pixel with affine transformation
-        for (int position = 0; position < xSize; position++, x += dx, y += dy) {
-            if (x >= 0 && y >= 0 && x < xSizeFixed && y < ySizeFixed) {
-                // Coordinates in range, fetch pixel
-                scratchOBJBuffer[position] = fetchMatrixPixel(sprite, x >> 8, y >> 8, xSizeOriginal);
-            } else {
-                // Coordinates outside of range, transparency defaulted
-                scratchOBJBuffer[position] = 0x3800000;
-            }
-        }
+    public void renderMatrixSprite(int objNumber, int xSize, int ySize, int yOffset) {
+        renderMatrixSpriteLine(objNumber, xSize, ySize, yOffset, paletteOBJ256, paletteOBJ16, OAMTable[PALETTE_NUMBER | objNumber], 0x3800000);
     }
 
     /**
      * Render a matrix (affine) sprite for OBJ window.
      */
-    public void renderMatrixSpriteOBJWIN(OAMEntry sprite, int xSize, int ySize, int yOffset) {
+    public void renderMatrixSpriteOBJWIN(int objNumber, int xSize, int ySize, int yOffset) {
+        // OBJ window pixels are the raw color indices
+        renderMatrixSpriteLine(objNumber, xSize, ySize, yOffset, OBJWINPalette, OBJWINPalette, 0, 0);
+    }
+
+    /**
+     * Render the positions of a matrix sprite line that can reach the screen. The span is
+     * clipped to the screen, then to the positions whose texture coordinates fall inside
+     * the sprite, which are stepped incrementally by the 4bpp or 8bpp loop. The rest of the
+     * on screen span is transparent.
+     */
+    public void renderMatrixSpriteLine(int objNumber, int xSize, int ySize, int yOffset, int[] palette256, int[] palette16, int paletteNumber, int transparent) {
+        int doubleSizeOrDisabled = OAMTable[DOUBLE_SIZE_OR_DISABLED | objNumber];
         int xDiff = -(xSize >> 1);
         int yDiff = yOffset - (ySize >> 1);
-        int xSizeOriginal = xSize >> sprite.doubleSizeOrDisabled;
+        int xSizeOriginal = xSize >> doubleSizeOrDisabled;
         int xSizeFixed = xSizeOriginal << 8;
-        int ySizeOriginal = ySize >> sprite.doubleSizeOrDisabled;
+        int ySizeOriginal = ySize >> doubleSizeOrDisabled;
         int ySizeFixed = ySizeOriginal << 8;
 
         // Get transformation matrix parameters
-        int dx = OBJMatrixParameters[sprite.matrixParameters];
-        int dmx = OBJMatrixParameters[sprite.matrixParameters + 1];
-        int dy = OBJMatrixParameters[sprite.matrixParameters + 2];
-        int dmy = OBJMatrixParameters[sprite.matrixParameters + 3];
+        int matrixParameters = OBJ_MATRIX_PARAMETERS | OAMTable[MATRIX_PARAMETERS | objNumber];
+        int dx = OAMTable[matrixParameters];
+        int dmx = OAMTable[matrixParameters + 1];
+        int dy = OAMTable[matrixParameters + 2];
+        int dmy = OAMTable[matrixParameters + 3];
 
         // Compute starting position
-        int pa = dx * xDiff;
-        int pb = dmx * yDiff;
-        int pc = dy * xDiff;
-        int pd = dmy * yDiff;
-
-        int x = pa + pb + (xSizeFixed >> 1);
-        int y = pc + pd + (ySizeFixed >> 1);
-
-        // Render each pixel with affine transformation
-        for (int position = 0; position < xSize; position++, x += dx, y += dy) {
-            if (x >= 0 && y >= 0 && x < xSizeFixed && y < ySizeFixed) {
-                // Coordinates in range, fetch pixel
-                scratchOBJBuffer[position] = fetchMatrixPixelOBJWIN(sprite, x >> 8, y >> 8, xSizeOriginal);
+        int x = (dx * xDiff) + (dmx * yDiff) + (xSizeFixed >> 1);
+        int y = (dy * xDiff) + (dmy * yDiff) + (ySizeFixed >> 1);
+
+        // Positions that land on screen, mosaic blocks may start left of it
+        int xcoord = spriteXCoord(objNumber, xSize);
+        int positionStart = (OAMTable[MOSAIC | objNumber] == 0) ? Math.max(-xcoord, 0) : 0;
+        int positionEnd = Math.min(240 - xcoord, xSize);
+        if (positionEnd <= positionStart) {
+            return;
+        }
+
+        // Positions whose texture coordinates are inside the sprite
+        int textureStart = Math.max(Math.max(positionStart, clipStart(x, dx, xSizeFixed)), clipStart(y, dy, ySizeFixed));
+        int textureEnd = Math.min(Math.min(positionEnd, clipEnd(x, dx, xSizeFixed)), clipEnd(y, dy, ySizeFixed));
+        textureStart = Math.min(textureStart, positionEnd);
+        textureEnd = Math.max(textureEnd, textureStart);
+
+        // Coordinates outside of range, transparency defaulted
+        Arrays.fill(scratchOBJBuffer, positionStart, textureStart, transparent);
+        Arrays.fill(scratchOBJBuffer, textureEnd, positionEnd, transparent);
+        if (textureStart < textureEnd) {
+            x += dx * textureStart;
+            y += dy * textureStart;
+            int tileNumber = OAMTable[TILE_NUMBER | objNumber];
+            boolean mapping1D = (gfx.displayControl & 0x40) != 0;
+            if (OAMTable[MONOLITHIC_PALETTE | objNumber] != 0) {
+                // 256 Colors / 1 Palette, the 2D mapping ignores the LSB of the tile number
+                int tileBase = (mapping1D ? tileNumber : (tileNumber & ~1)) << 5;
+                int rowShift = mapping1D ? (Integer.numberOfTrailingZeros(xSizeOriginal) + 3) : 10;
+                renderMatrixSprite256(textureStart, textureEnd, x, y, dx, dy, tileBase, rowShift, palette256);
             } else {
-                // Coordinates outside of range, transparency defaulted
-                scratchOBJBuffer[position] = 0;
+                // 16 Colors / 16 palettes
+                int tileBase = tileNumber << 5;
+                int rowShift = mapping1D ? (Integer.numberOfTrailingZeros(xSizeOriginal) + 2) : 10;
+                renderMatrixSprite16(textureStart, textureEnd, x, y, dx, dy, tileBase, rowShift, palette16, paletteNumber);
             }
         }
     }
 
     /**
-     * Fetch a pixel for matrix sprite.
+     * Matrix sprite texels for 256 colors, addresses wrap inside the 32 KB of OBJ VRAM.
      */
-    public int fetchMatrixPixel(OAMEntry sprite, int x, int y, int xSize) {
-        if (sprite.monolithicPalette != 0) {
-            // 256 Colors / 1 Palette
-            int address = tileNumberToAddress256(sprite.tileNumber, xSize, y);
-            address += tileRelativeAddressOffset(x, y);
-            return paletteOBJ256[VRAM[address] & 0xFF];
-        } else {
-            // 16 Colors / 16 palettes
-            int address = tileNumberToAddress16(sprite.tileNumber, xSize, y);
-            address += tileRelativeAddressOffset(x, y) >> 1;
-            if ((x & 0x1) == 0) {
-                return paletteOBJ16[sprite.paletteNumber | (VRAM[address] & 0xF)];
-            } else {
-                return paletteOBJ16[sprite.paletteNumber | ((VRAM[address] & 0xFF) >> 4)];
-            }
+    public void renderMatrixSprite256(int position, int positionEnd, int x, int y, int dx, int dy, int tileBase, int rowShift, int[] palette) {
+        byte[] VRAM = this.VRAM;
+        int[] scratchOBJBuffer = this.scratchOBJBuffer;
+        for (; position < positionEnd; position++, x += dx, y += dy) {
+            int texelX = x >> 8;
+            int texelY = y >> 8;
+            int address = tileBase + ((texelY >> 3) << rowShift) + ((texelY & 7) << 3) + ((texelX >> 3) << 6) + (texelX & 7);
+            scratchOBJBuffer[position] = palette[VRAM[0x10000 | (address & 0x7FFF)] & 0xFF];
         }
     }
 
     /**
-     * Fetch a pixel for matrix sprite (OBJWIN mode).
+     * Matrix sprite texels for 16 colors, addresses wrap inside the 32 KB of OBJ VRAM.
      */
-    public int fetchMatrixPixelOBJWIN(OAMEntry sprite, int x, int y, int xSize) {
-        if (sprite.monolithicPalette != 0) {
-            // 256 Colors / 1 Palette
-            int address = tileNumberToAddress256(sprite.tileNumber, xSize, y);
-            address += tileRelativeAddressOffset(x, y);
-            return VRAM[address] & 0xFF;
-        } else {
-            // 16 Colors / 16 palettes
-            int address = tileNumberToAddress16(sprite.tileNumber, xSize, y);
-            address += tileRelativeAddressOffset(x, y) >> 1;
-            if ((x & 0x1) == 0) {
-                return VRAM[address] & 0xF;
-            } else {
-                return (VRAM[address] & 0xFF) >> 4;
-            }
+    public void renderMatrixSprite16(int position, int positionEnd, int x, int y, int dx, int dy, int tileBase, int rowShift, int[] palette, int paletteNumber) {
+        byte[] VRAM = this.VRAM;
+        int[] scratchOBJBuffer = this.scratchOBJBuffer;
+        for (; position < positionEnd; position++, x += dx, y += dy) {
+            int texelX = x >> 8;
+            int texelY = y >> 8;
+            int address = tileBase + ((texelY >> 3) << rowShift) + ((texelY & 7) << 2) + ((texelX >> 3) << 5) + ((texelX & 7) >> 1);
+            int data = VRAM[0x10000 | (address & 0x7FFF)] >> ((texelX & 1) << 2);
+            scratchOBJBuffer[position] = palette[paletteNumber | (data & 0xF)];
+        }
+    }
+
+    /**
+     * First position where start + position * step is at or above 0 and below limit.
+     */
+    public static int clipStart(int start, int step, int limit) {
+        if (step > 0) {
+            return -Math.floorDiv(start, step);
+        } else if (step < 0) {
+            return Math.floorDiv(start - limit, -step) + 1;
         }
+        return (start >= 0 && start < limit) ? Integer.MIN_VALUE : Integer.MAX_VALUE;
     }
 
     /**
-     * Compute tile-relative address offset.
+     * Position past the last one where start + position * step is at or above 0 and below limit.
      */
-    public int tileRelativeAddressOffset(int x, int y) {
-        return (((y & 7) + (x & ~7)) << 3) + (x & 0x7);
+    public static int clipEnd(int start, int step, int limit) {
+        if (step > 0) {
+            return -Math.floorDiv(start - limit, step);
+        } else if (step < 0) {
+            return Math.floorDiv(start, -step) + 1;
+        }
+        return (start >= 0 && start < limit) ? Integer.MAX_VALUE : Integer.MIN_VALUE;
     }
 
     /**
      * Render a normal (non-affine) sprite.
      */
-    public void renderNormalSprite(OAMEntry sprite, int xSize, int ySize, int yOffset) {
-        if (sprite.verticalFlip != 0) {
+    public void renderNormalSprite(int objNumber, int xSize, int ySize, int yOffset) {
+        if (OAMTable[VERTICAL_FLIP | objNumber] != 0) {
             // Flip y-coordinate offset
             yOffset = ySize - yOffset;
         }
 
-        if (sprite.monolithicPalette != 0) {
+        if (OAMTable[MONOLITHIC_PALETTE | objNumber] != 0) {
             // 256 Colors / 1 Palette
-            int address = tileNumberToAddress256(sprite.tileNumber, xSize, yOffset);
+            int address = tileNumberToAddress256(OAMTable[TILE_NUMBER | objNumber], xSize, yOffset);
             address += (yOffset & 7) << 3;
             render256ColorPaletteSprite(address, xSize);
         } else {
             // 16 Colors / 16 palettes
-            int address = tileNumberToAddress16(sprite.tileNumber, xSize, yOffset);
+            int address = tileNumberToAddress16(OAMTable[TILE_NUMBER | objNumber], xSize, yOffset);
             address += (yOffset & 7) << 2;
-            render16ColorPaletteSprite(address, xSize, sprite.paletteNumber);
+            render16ColorPaletteSprite(address, xSize, OAMTable[PALETTE_NUMBER | objNumber]);
         }
     }
 
     /**
      * Render a normal (non-affine) sprite for OBJ window.
      */
-    public void renderNormalSpriteOBJWIN(OAMEntry sprite, int xSize, int ySize, int yOffset) {
-        if (sprite.verticalFlip != 0) {
+    public void renderNormalSpriteOBJWIN(int objNumber, int xSize, int ySize, int yOffset) {
+        if (OAMTable[VERTICAL_FLIP | objNumber] != 0) {
             // Flip y-coordinate offset
             yOffset = ySize - yOffset;
         }
 
-        if (sprite.monolithicPalette != 0) {
+        if (OAMTable[MONOLITHIC_PALETTE | objNumber] != 0) {
             // 256 Colors / 1 Palette
-            int address = tileNumberToAddress256(sprite.tileNumber, xSize, yOffset);
+            int address = tileNumberToAddress256(OAMTable[TILE_NUMBER | objNumber], xSize, yOffset);
             address += (yOffset & 7) << 3;
             render256ColorPaletteSpriteOBJWIN(address, xSize);
         } else {
             // 16 Colors / 16 palettes
-            int address = tileNumberToAddress16(sprite.tileNumber, xSize, yOffset);
+            int address = tileNumberToAddress16(OAMTable[TILE_NUMBER | objNumber], xSize, yOffset);
             address += (yOffset & 7) << 2;
             render16ColorPaletteSpriteOBJWIN(address, xSize);
         }
@@ -562,27 +657,35 @@ public class GameBoyAdvanceOBJRenderer {
     }
 
     /**
-     * Output sprite to scratch buffer (normal mode).
+     * Screen x of the sprite's first position.
      */
-    public void outputSpriteToScratch(OAMEntry sprite, int xSize) {
+    public int spriteXCoord(int objNumber, int xSize) {
         // Simulate x-coord wrap around logic
-        int xcoord = sprite.xcoord;
+        int xcoord = OAMTable[XCOORD | objNumber];
         if (xcoord > (0x200 - xSize)) {
             xcoord = xcoord - 0x200;
         }
+        return xcoord;
+    }
+
+    /**
+     * Output sprite to scratch buffer (normal mode).
+     */
+    public void outputSpriteToScratch(int objNumber, int xSize) {
+        int xcoord = spriteXCoord(objNumber, xSize);
 
         // Perform the mosaic transform
-        if (sprite.mosaic != 0) {
-            mosaicRenderer.renderOBJMosaicHorizontal(xcoord, xSize);
+        if (OAMTable[MOSAIC | objNumber] != 0) {
+            mosaicRenderer.renderOBJMosaicHorizontal(scratchOBJBuffer, xcoord, xSize, 0x3800000);
         }
 
         // Resolve end point
         int xcoordEnd = Math.min(xcoord + xSize, 240);
 
         // Flag for compositor to ID the pixels as OBJ
-        int bitFlags = (sprite.priority << 23) | 0x100000;
+        int bitFlags = (OAMTable[PRIORITY | objNumber] << 23) | 0x100000;
 
-        if (sprite.horizontalFlip == 0 || sprite.matrix2D != 0) {
+        if (OAMTable[HORIZONTAL_FLIP | objNumber] == 0 || OAMTable[MATRIX2D | objNumber] != 0) {
             // Normal
             outputSpriteNormal(xcoord, xcoordEnd, bitFlags);
         } else {
@@ -594,25 +697,21 @@ public class GameBoyAdvanceOBJRenderer {
     /**
      * Output sprite to scratch buffer (semi-transparent mode).
      */
-    public void outputSemiTransparentSpriteToScratch(OAMEntry sprite, int xSize) {
-        // Simulate x-coord wrap around logic
-        int xcoord = sprite.xcoord;
-        if (xcoord > (0x200 - xSize)) {
-            xcoord = xcoord - 0x200;
-        }
+    public void outputSemiTransparentSpriteToScratch(int objNumber, int xSize) {
+        int xcoord = spriteXCoord(objNumber, xSize);
 
         // Perform the mosaic transform
-        if (sprite.mosaic != 0) {
-            mosaicRenderer.renderOBJMosaicHorizontal(xcoord, xSize);
+        if (OAMTable[MOSAIC | objNumber] != 0) {
+            mosaicRenderer.renderOBJMosaicHorizontal(scratchOBJBuffer, xcoord, xSize, 0x3800000);
         }
 
         // Resolve end point
         int xcoordEnd = Math.min(xcoord + xSize, 240);
 
         // Flag for compositor to ID the pixels as OBJ (semi-transparent)
-        int bitFlags = (sprite.priority << 23) | 0x500000;
+        int bitFlags = (OAMTable[PRIORITY | objNumber] << 23) | 0x500000;
 
-        if (sprite.horizontalFlip == 0 || sprite.matrix2D != 0) {
+        if (OAMTable[HORIZONTAL_FLIP | objNumber] == 0 || OAMTable[MATRIX2D | objNumber] != 0) {
             // Normal
             outputSpriteNormal(xcoord, xcoordEnd, bitFlags);
         } else {
@@ -624,22 +723,18 @@ public class GameBoyAdvanceOBJRenderer {
     /**
      * Output sprite to OBJ window scratch buffer.
      */
-    public void outputSpriteToOBJWINScratch(OAMEntry sprite, int xSize) {
-        // Simulate x-coord wrap around logic
-        int xcoord = sprite.xcoord;
-        if (xcoord > (0x200 - xSize)) {
-            xcoord = xcoord - 0x200;
-        }
+    public void outputSpriteToOBJWINScratch(int objNumber, int xSize) {
+        int xcoord = spriteXCoord(objNumber, xSize);
 
         // Perform the mosaic transform
-        if (sprite.mosaic != 0) {
-            mosaicRenderer.renderOBJMosaicHorizontal(xcoord, xSize);
+        if (OAMTable[MOSAIC | objNumber] != 0) {
+            mosaicRenderer.renderOBJMosaicHorizontal(scratchOBJBuffer, xcoord, xSize, 0);
         }
 
         // Resolve end point
         int xcoordEnd = Math.min(xcoord + xSize, 240);
 
-        if (sprite.horizontalFlip == 0 || sprite.matrix2D != 0) {
+        if (OAMTable[HORIZONTAL_FLIP | objNumber] == 0 || OAMTable[MATRIX2D | objNumber] != 0) {
             // Normal
             outputSpriteNormalOBJWIN(xcoord, xcoordEnd);
         } else {
@@ -699,12 +794,12 @@ public class GameBoyAdvanceOBJRenderer {
     /**
      * Check if a sprite is drawable.
      */
-    public boolean isDrawable(OAMEntry sprite) {
+    public boolean isDrawable(int objNumber) {
         // Make sure we pass some checks that real hardware does
-        if (sprite.mode <= 2) {
-            if (sprite.doubleSizeOrDisabled == 0 || sprite.matrix2D != 0) {
-                if (sprite.shape < 3) {
-                    if ((gfx.displayControl & 0x7) < 3 || sprite.tileNumber >= 0x200) {
+        if (OAMTable[MODE | objNumber] <= 2) {
+            if (OAMTable[DOUBLE_SIZE_OR_DISABLED | objNumber] == 0 || OAMTable[MATRIX2D | objNumber] != 0) {
+                if (OAMTable[SHAPE | objNumber] < 3) {
+                    if ((gfx.displayControl & 0x7) < 3 || OAMTable[TILE_NUMBER | objNumber] >= 0x200) {
                         return true;
                     }
                 }
@@ -751,35 +846,43 @@ public class GameBoyAdvanceOBJRenderer {
      * Write 16-bit value to OAM.
      */
     public void writeOAM16(int address, int data) {
-        OAMEntry OAMTable = this.OAMTable[address >> 2];
+        int[] OAMTable = this.OAMTable;
+        int objNumber = address >> 2;
 
         switch (address & 0x3) {
             case 0:  // Attrib 0
-                OAMTable.ycoord = data & 0xFF;
-                OAMTable.matrix2D = data & 0x100;
-                OAMTable.doubleSizeOrDisabled = (data & 0x200) >> 9;
-                OAMTable.mode = (data >> 10) & 0x3;
-                OAMTable.mosaic = data & 0x1000;
-                OAMTable.monolithicPalette = data & 0x2000;
-                OAMTable.shape = data >> 14;
+                // Everything but the palette mode affects the sprite's lines
+                if (((OAMRAM16.get(address & 0x1FF) ^ data) & 0xDFFF) != 0) {
+                    markSpriteDirty(objNumber);
+                }
+                OAMTable[YCOORD | objNumber] = data & 0xFF;
+                OAMTable[MATRIX2D | objNumber] = data & 0x100;
+                OAMTable[DOUBLE_SIZE_OR_DISABLED | objNumber] = (data & 0x200) >> 9;
+                OAMTable[MODE | objNumber] = (data >> 10) & 0x3;
+                OAMTable[MOSAIC | objNumber] = data & 0x1000;
+                OAMTable[MONOLITHIC_PALETTE | objNumber] = data & 0x2000;
+                OAMTable[SHAPE | objNumber] = data >> 14;
                 break;
 
             case 1:  // Attrib 1
-                OAMTable.xcoord = data & 0x1FF;
-                OAMTable.matrixParameters = (data >> 7) & 0x7C;
-                OAMTable.horizontalFlip = data & 0x1000;
-                OAMTable.verticalFlip = data & 0x2000;
-                OAMTable.size = data >> 14;
+                if (((OAMRAM16.get(address & 0x1FF) ^ data) & 0xC000) != 0) {
+                    markSpriteDirty(objNumber);
+                }
+                OAMTable[XCOORD | objNumber] = data & 0x1FF;
+                OAMTable[MATRIX_PARAMETERS | objNumber] = (data >> 7) & 0x7C;
+                OAMTable[HORIZONTAL_FLIP | objNumber] = data & 0x1000;
+                OAMTable[VERTICAL_FLIP | objNumber] = data & 0x2000;
+                OAMTable[SIZE | objNumber] = data >> 14;
                 break;
 
             case 2:  // Attrib 2
-                OAMTable.tileNumber = data & 0x3FF;
-                OAMTable.priority = (data >> 10) & 0x3;
-                OAMTable.paletteNumber = (data >> 8) & 0xF0;
+                OAMTable[TILE_NUMBER | objNumber] = data & 0x3FF;
+                OAMTable[PRIORITY | objNumber] = (data >> 10) & 0x3;
+                OAMTable[PALETTE_NUMBER | objNumber] = (data >> 8) & 0xF0;
                 break;
 
             default:  // Scaling/Rotation Parameter
-                OBJMatrixParameters[address >> 2] = (short)data;  // Sign extend
+                OAMTable[OBJ_MATRIX_PARAMETERS | objNumber] = (short)data;  // Sign extend
                 break;
         }
 
@@ -790,32 +893,38 @@ public class GameBoyAdvanceOBJRenderer {
      * Write 32-bit value to OAM.
      */
     public void writeOAM32(int address, int data) {
-        OAMEntry OAMTable = this.OAMTable[address >> 1];
+        int[] OAMTable = this.OAMTable;
+        int objNumber = address >> 1;
 
         if ((address & 0x1) == 0) {
+            // Attrib 0 and the size of attrib 1 affect the sprite's lines
+            if (((OAMRAM32.get(address & 0xFF) ^ data) & 0xC000DFFF) != 0) {
+                markSpriteDirty(objNumber);
+            }
+
             // Attrib 0
-            OAMTable.ycoord = data & 0xFF;
-            OAMTable.matrix2D = data & 0x100;
-            OAMTable.doubleSizeOrDisabled = (data & 0x200) >> 9;
-            OAMTable.mode = (data >> 10) & 0x3;
-            OAMTable.mosaic = data & 0x1000;
-            OAMTable.monolithicPalette = data & 0x2000;
-            OAMTable.shape = (data >> 14) & 0x3;
+            OAMTable[YCOORD | objNumber] = data & 0xFF;
+            OAMTable[MATRIX2D | objNumber] = data & 0x100;
+            OAMTable[DOUBLE_SIZE_OR_DISABLED | objNumber] = (data & 0x200) >> 9;
+            OAMTable[MODE | objNumber] = (data >> 10) & 0x3;
+            OAMTable[MOSAIC | objNumber] = data & 0x1000;
+            OAMTable[MONOLITHIC_PALETTE | objNumber] = data & 0x2000;
+            OAMTable[SHAPE | objNumber] = (data >> 14) & 0x3;
 
             // Attrib 1
-            OAMTable.xcoord = (data >> 16) & 0x1FF;
-            OAMTable.matrixParameters = (data >> 23) & 0x7C;
-            OAMTable.horizontalFlip = data & 0x10000000;
-            OAMTable.verticalFlip = data & 0x20000000;
-            OAMTable.size = data >>> 30;
+            OAMTable[XCOORD | objNumber] = (data >> 16) & 0x1FF;
+            OAMTable[MATRIX_PARAMETERS | objNumber] = (data >> 23) & 0x7C;
+            OAMTable[HORIZONTAL_FLIP | objNumber] = data & 0x10000000;
+            OAMTable[VERTICAL_FLIP | objNumber] = data & 0x20000000;
+            OAMTable[SIZE | objNumber] = data >>> 30;
         } else {
             // Attrib 2
-            OAMTable.tileNumber = data & 0x3FF;
-            OAMTable.priority = (data >> 10) & 0x3;
-            OAMTable.paletteNumber = (data >> 8) & 0xF0;
+            OAMTable[TILE_NUMBER | objNumber] = data & 0x3FF;
+            OAMTable[PRIORITY | objNumber] = (data >> 10) & 0x3;
+            OAMTable[PALETTE_NUMBER | objNumber] = (data >> 8) & 0xF0;
 
             // Scaling/Rotation Parameter
-            OBJMatrixParameters[address >> 1] = data >> 16;
+            OAMTable[OBJ_MATRIX_PARAMETERS | objNumber] = data >> 16;
         }
 
         OAMRAM32.put(address & 0xFF, data);
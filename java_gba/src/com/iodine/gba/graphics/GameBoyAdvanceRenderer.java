@@ -8,6 +8,17 @@ import java.nio.ByteOrder;
 /**
  * GameBoyAdvanceRenderer - Graphics rendering engine (converted from Renderer.js)
  * Copyright (C) 2012-2016 Grant Galitz
+ *
+ * With off-thread, band-parallel or headless rendering enabled, the instance owned by the I/O core
+ * only keeps the CPU visible copies of VRAM and palette RAM up to date and journals every
+ * write to a GameBoyAdvanceRendererJournal, whose own renderer instances replay them (the
+ * Java take on RendererShim.js and Worker.js).
+ *
+ * Drawn lines are memoized per scanline. A line's fingerprint is every PPU register byte as
+ * last written, the affine reference counters, and the write generations of the VRAM,
+ * palette and OAM halves the enabled layers read. When it equals the fingerprint the line
+ * was last drawn with, the composited line of that frame is reused instead of rendering and
+ * compositing it again.
  */
 public class GameBoyAdvanceRenderer {
     public GameBoyAdvanceIO IOCore;
@@ -30,8 +41,8 @@ public class GameBoyAdvanceRenderer {
     // Rendering buffers
     public int[] buffer;
     public int[] lineBuffer;
-    public int[] frameBuffer;        // Internal buffer to composite to (38400 = 240*160)
-    public byte[] swizzledFrame;     // Swizzled output buffer (115200 = 240*160*3 RGB)
+    public int[] frameBuffer;        // Display ready ARGB output (38400 = 240*160)
+    public GameBoyAdvanceColorTable colorTable;  // BGR555 to ARGB, shared with the journal's renderers
 
     public int totalLinesPassed;
     public int queuedScanLines;
@@ -45,6 +56,7 @@ public class GameBoyAdvanceRenderer {
     public int[] paletteOBJ16;
 
     // Sub-renderers
+    public GameBoyAdvanceTileCache tileCache;
     public GameBoyAdvanceCompositor compositor;
     public GameBoyAdvanceBGTEXTRenderer bg0Renderer;
     public GameBoyAdvanceBGTEXTRenderer bg1Renderer;
@@ -62,18 +74,78 @@ public class GameBoyAdvanceRenderer {
     public GameBoyAdvanceMosaicRenderer mosaicRenderer;
     public GameBoyAdvanceColorEffectsRenderer colorEffectsRenderer;
 
+    // Off-thread, band-parallel or headless renderer, null when rendering inline
+    public GameBoyAdvanceRendererJournal journal;
+    // Lines this instance draws, band renderers only draw their slice of the frame
+    public int bandStart = 0;
+    public int bandEnd = 160;
+    // Frame skipping, skipped frames only keep the affine bg counters moving
+    public boolean skipFrame = false;
+    public int framesSkippedInARow = 0;
+
+    // PPU registers 0x000-0x057 as last written, four bytes per word
+    public int[] registerState = new int[0x16];
+    // Write generations of the memory a line can depend on
+    public int BGVRAMGeneration;
+    public int OBJVRAMGeneration;
+    public int BGPaletteGeneration;
+    public int OBJPaletteGeneration;
+    public int OAMGeneration;
+    // Fingerprint and composited pixels each line was last drawn with
+    public static final int LINE_FINGERPRINT_LENGTH = 0x16 + 4 + 5;
+    public int[] lineFingerprint = new int[LINE_FINGERPRINT_LENGTH];
+    public int[] lineMemoFingerprints = new int[160 * LINE_FINGERPRINT_LENGTH];
+    public int[] lineMemoPixels = new int[160 * 240];
+    public boolean[] lineMemoValid = new boolean[160];
+    public long lineMemoHits = 0;
+    public long lineMemoMisses = 0;
+
     public GameBoyAdvanceRenderer(GameBoyAdvanceIO ioCore) {
         this.IOCore = ioCore;
     }
 
     public void initialize(boolean skippingBIOS) {
         memory = IOCore.memory;
+        initialize(skippingBIOS, memory.VRAM, memory.paletteRAM);
+        if (IOCore.coreExposed != null) {
+            setColorConversion(IOCore.coreExposed.colorCorrection, IOCore.coreExposed.grayscale);
+            if (IOCore.coreExposed.headlessGfx) {
+                journal = new GameBoyAdvanceRendererHeadless(this, skippingBIOS);
+            } else if (IOCore.coreExposed.offthreadGfx) {
+                startWorker(skippingBIOS);
+            } else if (IOCore.coreExposed.parallelGfx) {
+                startBands(skippingBIOS);
+            }
+        }
+    }
+
+    /**
+     * Initialize against the given VRAM and palette RAM, which this instance then writes.
+     */
+    public void initialize(boolean skippingBIOS, byte[] VRAM, byte[] paletteRAM) {
+        this.VRAM = VRAM;
+        this.paletteRAM = paletteRAM;
         initializeIO(skippingBIOS);
         initializePaletteStorage();
         generateRenderers();
         initializeRenderers();
     }
 
+    public void startWorker(boolean skippingBIOS) {
+        GameBoyAdvanceRendererWorker worker = new GameBoyAdvanceRendererWorker(IOCore, skippingBIOS);
+        // Publish the journal once per iteration, stop the thread with the core instance
+        IOCore.coreExposed.endCallbacks.add(worker::synchronizeWriter);
+        IOCore.coreExposed.terminationCallbacks.add(worker::terminate);
+        worker.start();
+        journal = worker;
+    }
+
+    public void startBands(boolean skippingBIOS) {
+        GameBoyAdvanceRendererBands bands = new GameBoyAdvanceRendererBands(this, skippingBIOS, IOCore.coreExposed.parallelGfxBands);
+        IOCore.coreExposed.terminationCallbacks.add(bands::terminate);
+        journal = bands;
+    }
+
     public void initializeIO(boolean skippingBIOS) {
         // Initialize Pre-Boot
         displayControl = 0x80;
@@ -81,21 +153,17 @@ public class GameBoyAdvanceRenderer {
         greenSwap = 0;
         WINOutside = 0;
 
-        // Use memory's VRAM and palette RAM
-        VRAM = memory.VRAM;
-        paletteRAM = memory.paletteRAM;
-
         // Create ByteBuffer views for 16-bit and 32-bit access
-        VRAM16 = ByteBuffer.wrap(VRAM).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().asReadOnlyBuffer();
-        VRAM32 = ByteBuffer.wrap(VRAM).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().asReadOnlyBuffer();
-        paletteRAM16 = ByteBuffer.wrap(paletteRAM).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().asReadOnlyBuffer();
-        paletteRAM32 = ByteBuffer.wrap(paletteRAM).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().asReadOnlyBuffer();
+        VRAM16 = ByteBuffer.wrap(VRAM).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        VRAM32 = ByteBuffer.wrap(VRAM).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        paletteRAM16 = ByteBuffer.wrap(paletteRAM).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        paletteRAM32 = ByteBuffer.wrap(paletteRAM).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
 
         // Allocate buffers
         buffer = new int[0x680];
         lineBuffer = buffer;  // First 240 elements used for line buffer
         frameBuffer = new int[38400];        // 240 * 160
-        swizzledFrame = new byte[115200];    // 240 * 160 * 3 (RGB)
+        colorTable = new GameBoyAdvanceColorTable();
 
         totalLinesPassed = 0;
         queuedScanLines = 0;
@@ -124,6 +192,7 @@ public class GameBoyAdvanceRenderer {
     }
 
     public void generateRenderers() {
+        tileCache = new GameBoyAdvanceTileCache(this);
         compositor = new GameBoyAdvanceCompositor(this);
         bg0Renderer = new GameBoyAdvanceBGTEXTRenderer(this, 0);
         bg1Renderer = new GameBoyAdvanceBGTEXTRenderer(this, 1);
@@ -143,6 +212,7 @@ public class GameBoyAdvanceRenderer {
     }
 
     public void initializeRenderers() {
+        tileCache.initialize();
         compositor.initialize();
         compositorPreprocess();
         bg0Renderer.initialize();
@@ -160,27 +230,22 @@ public class GameBoyAdvanceRenderer {
         objWindowRenderer.initialize();
     }
 
-    public void swizzleFrameBuffer() {
-        // Convert our dirty 15-bit (15-bit, with internal render flags above it)
-        // framebuffer to an 8-bit buffer with separate indices for the RGB channels
-        int bufferIndex = 0;
-        for (int canvasIndex = 0; canvasIndex < 115200; bufferIndex++) {
-            swizzledFrame[canvasIndex++] = (byte)(((frameBuffer[bufferIndex] & 0x1F) << 3) & 0xFF);      // Red
-            swizzledFrame[canvasIndex++] = (byte)(((frameBuffer[bufferIndex] & 0x3E0) >> 2) & 0xFF);     // Green
-            swizzledFrame[canvasIndex++] = (byte)(((frameBuffer[bufferIndex] & 0x7C00) >> 7) & 0xFF);    // Blue
-        }
+    /**
+     * Select the LCD color correction and grayscale variants of the output colors.
+     */
+    public void setColorConversion(boolean colorCorrection, boolean grayscale) {
+        colorTable.generate(colorCorrection, grayscale);
     }
 
     public void prepareFrame() {
-        // Copy the internal frame buffer to the output buffer
-        swizzleFrameBuffer();
+        // The frame buffer already holds display ready pixels
         requestDraw();
     }
 
     public void requestDraw() {
-        // Update graphics - copy swizzled frame to display
+        // Update graphics - hand the frame to the display, which may hand back another buffer
         if (IOCore.graphicsFrameCallback != null) {
-            IOCore.graphicsFrameCallback.onFrame(swizzledFrame);
+            frameBuffer = IOCore.graphicsFrameCallback.onFrame(frameBuffer);
         }
     }
 
@@ -205,6 +270,10 @@ public class GameBoyAdvanceRenderer {
     }
 
     public void incrementScanLineQueue() {
+        if (journal != null) {
+            journal.pushCommand(GameBoyAdvanceRendererJournal.COMMAND_LINE, 0);
+            return;
+        }
         if (queuedScanLines < 160) {
             queuedScanLines++;
         } else {
@@ -213,18 +282,61 @@ public class GameBoyAdvanceRenderer {
     }
 
     public void ensureFraming() {
+        if (journal != null) {
+            journal.frameEnd();
+            return;
+        }
         // Ensure JIT framing alignment
         if (totalLinesPassed < 160) {
             // Make sure our gfx are up-to-date
             graphicsJITVBlank();
-            // Draw the frame
-            prepareFrame();
+            if (!skipFrame) {
+                // Draw the frame
+                prepareFrame();
+            }
+        }
+        selectFrameSkip();
+    }
+
+    /**
+     * Headless mode: draw the frame in progress and hand it to the display when it completes.
+     */
+    public void requestFrame() {
+        if (journal != null) {
+            journal.requestFrame();
+        }
+    }
+
+    /**
+     * Decide at a frame boundary whether the next frame is rendered.
+     */
+    public void selectFrameSkip() {
+        int frameSkip = (IOCore.coreExposed != null) ? IOCore.coreExposed.frameSkip : 0;
+        if (framesSkippedInARow < frameSkip) {
+            framesSkippedInARow++;
+            skipFrame = true;
+        } else {
+            framesSkippedInARow = 0;
+            skipFrame = false;
         }
     }
 
     public void renderScanLine() {
         int line = lastUnrenderedLine;
-        if ((displayControl & 0x80) == 0) {
+        if (skipFrame || line < bandStart || line >= bandEnd) {
+            // Frame skipped or another band draws this line, only keep the affine bg counters in step.
+            // OBJ cycle budgets start over every line and nothing else here is visible to the CPU.
+            lineMemoValid[line] = false;
+            updateReferenceCounters();
+            return;
+        }
+        if ((displayControl & 0x80) == 0 && lineMemoMatches(line)) {
+            // Nothing the line depends on changed since it was last drawn
+            lineMemoHits++;
+            System.arraycopy(lineMemoPixels, line * 240, buffer, 0, 240);
+            copyLineToFrameBuffer(line);
+        } else if ((displayControl & 0x80) == 0) {
+            lineMemoMisses++;
             // Render with the current mode selected
             switch (displayControl & 0x7) {
                 case 0:
@@ -243,16 +355,80 @@ public class GameBoyAdvanceRenderer {
                     // Modes 3-5
                     renderModeFrameBuffer(line);
             }
+            storeLineMemo(line);
             // Copy line to our framebuffer
             copyLineToFrameBuffer(line);
         } else {
             // Forced blank is on, rendering disabled
+            lineMemoValid[line] = false;
             renderForcedBlank(line);
         }
         // Update the affine bg counters
         updateReferenceCounters();
     }
 
+    /**
+     * Build the fingerprint of the line about to be drawn and compare it with the one the
+     * line was last drawn with.
+     */
+    public boolean lineMemoMatches(int line) {
+        int[] fingerprint = lineFingerprint;
+        System.arraycopy(registerState, 0, fingerprint, 0, 0x16);
+        int index = 0x16;
+        fingerprint[index++] = bgAffineRenderer0.pb;
+        fingerprint[index++] = bgAffineRenderer0.pd;
+        fingerprint[index++] = bgAffineRenderer1.pb;
+        fingerprint[index++] = bgAffineRenderer1.pd;
+        // Generations of memory no enabled layer reads are left out
+        boolean BGEnabled = (display & 0xF) != 0;
+        boolean OBJEnabled = (display & 0x10) != 0;
+        // Bitmap modes read BG2 pixels from the upper VRAM half as well
+        boolean bitmapEnabled = (display & 0x4) != 0 && (displayControl & 0x7) > 2;
+        fingerprint[index++] = BGEnabled ? BGVRAMGeneration : 0;
+        fingerprint[index++] = (OBJEnabled || bitmapEnabled) ? OBJVRAMGeneration : 0;
+        // The backdrop is always read
+        fingerprint[index++] = BGPaletteGeneration;
+        fingerprint[index++] = OBJEnabled ? OBJPaletteGeneration : 0;
+        fingerprint[index] = OBJEnabled ? OAMGeneration : 0;
+        if (!lineMemoValid[line]) {
+            return false;
+        }
+        int memoOffset = line * LINE_FINGERPRINT_LENGTH;
+        for (index = 0; index < LINE_FINGERPRINT_LENGTH; index++) {
+            if (fingerprint[index] != lineMemoFingerprints[memoOffset + index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keep the composited line with the fingerprint lineMemoMatches built for it.
+     */
+    public void storeLineMemo(int line) {
+        System.arraycopy(lineFingerprint, 0, lineMemoFingerprints, line * LINE_FINGERPRINT_LENGTH, LINE_FINGERPRINT_LENGTH);
+        System.arraycopy(buffer, 0, lineMemoPixels, line * 240, 240);
+        lineMemoValid[line] = true;
+    }
+
+    /**
+     * Record a register write of the given byte width into registerState. The lines still
+     * queued were drawn under the old registers, so they are rendered and memoized before
+     * the fingerprint changes.
+     */
+    public void recordRegisterWrite(int address, int data, int width) {
+        if (address < 0x58) {
+            int shift = (address & 0x3) << 3;
+            int mask = (int)((1L << (width << 3)) - 1) << shift;
+            int index = address >> 2;
+            int value = (registerState[index] & ~mask) | ((data << shift) & mask);
+            if (value != registerState[index]) {
+                graphicsJIT();
+                registerState[index] = value;
+            }
+        }
+    }
+
     public void incrementScanLine() {
         if (lastUnrenderedLine < 159) {
             lastUnrenderedLine++;
@@ -355,14 +531,19 @@ public class GameBoyAdvanceRenderer {
     public void compositeLayers(int toRender) {
         if ((display & 0xE0) > 0) {
             // Window registers can further disable background layers if one or more window layers enabled
-            toRender = toRender & WINOutside;
+            // The outside region is marked under the windows and composited with them
+            compositor.markSpan(0, 240, toRender & WINOutside, WINOutside & 0x20);
+        } else {
+            // Composite the non-windowed result
+            compositor.renderScanLine(toRender);
         }
-        // Composite the non-windowed result
-        compositor.renderScanLine(toRender);
     }
 
     public void compositeWindowedLayers(int line, int toRender) {
-        // Composite the windowed result
+        if ((display & 0xE0) == 0) {
+            return;
+        }
+        // Mark the windowed regions, in increasing window priority
         if ((display & 0x90) == 0x90) {
             // Object Window
             objWindowRenderer.renderScanLine(line, toRender);
@@ -375,6 +556,8 @@ public class GameBoyAdvanceRenderer {
             // Window 0
             window0Renderer.renderScanLine(line, toRender);
         }
+        // Composite each span of the line once
+        compositor.renderWindowedScanLine();
     }
 
     public void copyLineToFrameBuffer(int line) {
@@ -391,24 +574,28 @@ public class GameBoyAdvanceRenderer {
     public void renderForcedBlank(int line) {
         int offsetStart = line * 240;
         // Render a blank line (white)
-        for (int position = 0; position < 240; position++) {
-            frameBuffer[offsetStart++] = 0x7FFF;
-        }
+        java.util.Arrays.fill(frameBuffer, offsetStart, offsetStart + 240, colorTable.table[0x7FFF]);
     }
 
     public void copyLineToFrameBufferNormal(int offsetStart) {
-        // Render a line - copy from line buffer to frame buffer
-        System.arraycopy(buffer, 0, frameBuffer, offsetStart, 240);
+        // Render a line - convert from line buffer to frame buffer
+        int[] buffer = this.buffer;
+        int[] frameBuffer = this.frameBuffer;
+        int[] colors = colorTable.table;
+        for (int position = 0; position < 240; position++) {
+            frameBuffer[offsetStart++] = colors[buffer[position] & 0x7FFF];
+        }
     }
 
     public void copyLineToFrameBufferGreenSwapped(int offsetStart) {
         // Render a line with green swap effect
+        int[] colors = colorTable.table;
         int position = 0;
         while (position < 240) {
             int pixel0 = buffer[position++];
             int pixel1 = buffer[position++];
-            frameBuffer[offsetStart++] = (pixel0 & 0x7C1F) | (pixel1 & 0x3E0);
-            frameBuffer[offsetStart++] = (pixel1 & 0x7C1F) | (pixel0 & 0x3E0);
+            frameBuffer[offsetStart++] = colors[(pixel0 & 0x7C1F) | (pixel1 & 0x3E0)];
+            frameBuffer[offsetStart++] = colors[(pixel1 & 0x7C1F) | (pixel0 & 0x3E0)];
         }
     }
 
@@ -440,6 +627,222 @@ public class GameBoyAdvanceRenderer {
         }
     }
 
+    /**
+     * 8-bit write to the PPU registers at 0x4000000-0x4000055, DISPSTAT and VCOUNT excluded.
+     */
+    public void writeIO8(int address, int data) {
+        if (journal != null) {
+            if (address == 0x000) {
+                // The LCD state machine reads the forced blank and H-blank interval free bits
+                displayControl = data;
+            }
+            journal.pushCommand(GameBoyAdvanceRendererJournal.COMMAND_IO8 | address, data);
+            return;
+        }
+        data &= 0xFF;
+        recordRegisterWrite(address, data, 1);
+        switch (address) {
+            case 0x000: writeDISPCNT8_0(data); break;
+            case 0x001: writeDISPCNT8_1(data); break;
+            case 0x002: writeDISPCNT8_2(data); break;
+            case 0x008: writeBG0CNT8_0(data); break;
+            case 0x009: writeBG0CNT8_1(data); break;
+            case 0x00A: writeBG1CNT8_0(data); break;
+            case 0x00B: writeBG1CNT8_1(data); break;
+            case 0x00C: writeBG2CNT8_0(data); break;
+            case 0x00D: writeBG2CNT8_1(data); break;
+            case 0x00E: writeBG3CNT8_0(data); break;
+            case 0x00F: writeBG3CNT8_1(data); break;
+            case 0x010: writeBG0HOFS8_0(data); break;
+            case 0x011: writeBG0HOFS8_1(data); break;
+            case 0x012: writeBG0VOFS8_0(data); break;
+            case 0x013: writeBG0VOFS8_1(data); break;
+            case 0x014: writeBG1HOFS8_0(data); break;
+            case 0x015: writeBG1HOFS8_1(data); break;
+            case 0x016: writeBG1VOFS8_0(data); break;
+            case 0x017: writeBG1VOFS8_1(data); break;
+            case 0x018: writeBG2HOFS8_0(data); break;
+            case 0x019: writeBG2HOFS8_1(data); break;
+            case 0x01A: writeBG2VOFS8_0(data); break;
+            case 0x01B: writeBG2VOFS8_1(data); break;
+            case 0x01C: writeBG3HOFS8_0(data); break;
+            case 0x01D: writeBG3HOFS8_1(data); break;
+            case 0x01E: writeBG3VOFS8_0(data); break;
+            case 0x01F: writeBG3VOFS8_1(data); break;
+            case 0x020: writeBG2PA8_0(data); break;
+            case 0x021: writeBG2PA8_1(data); break;
+            case 0x022: writeBG2PB8_0(data); break;
+            case 0x023: writeBG2PB8_1(data); break;
+            case 0x024: writeBG2PC8_0(data); break;
+            case 0x025: writeBG2PC8_1(data); break;
+            case 0x026: writeBG2PD8_0(data); break;
+            case 0x027: writeBG2PD8_1(data); break;
+            case 0x028: writeBG2X8_0(data); break;
+            case 0x029: writeBG2X8_1(data); break;
+            case 0x02A: writeBG2X8_2(data); break;
+            case 0x02B: writeBG2X8_3(data); break;
+            case 0x02C: writeBG2Y8_0(data); break;
+            case 0x02D: writeBG2Y8_1(data); break;
+            case 0x02E: writeBG2Y8_2(data); break;
+            case 0x02F: writeBG2Y8_3(data); break;
+            case 0x030: writeBG3PA8_0(data); break;
+            case 0x031: writeBG3PA8_1(data); break;
+            case 0x032: writeBG3PB8_0(data); break;
+            case 0x033: writeBG3PB8_1(data); break;
+            case 0x034: writeBG3PC8_0(data); break;
+            case 0x035: writeBG3PC8_1(data); break;
+            case 0x036: writeBG3PD8_0(data); break;
+            case 0x037: writeBG3PD8_1(data); break;
+            case 0x038: writeBG3X8_0(data); break;
+            case 0x039: writeBG3X8_1(data); break;
+            case 0x03A: writeBG3X8_2(data); break;
+            case 0x03B: writeBG3X8_3(data); break;
+            case 0x03C: writeBG3Y8_0(data); break;
+            case 0x03D: writeBG3Y8_1(data); break;
+            case 0x03E: writeBG3Y8_2(data); break;
+            case 0x03F: writeBG3Y8_3(data); break;
+            case 0x040: writeWIN0XCOORDRight8(data); break;
+            case 0x041: writeWIN0XCOORDLeft8(data); break;
+            case 0x042: writeWIN1XCOORDRight8(data); break;
+            case 0x043: writeWIN1XCOORDLeft8(data); break;
+            case 0x044: writeWIN0YCOORDBottom8(data); break;
+            case 0x045: writeWIN0YCOORDTop8(data); break;
+            case 0x046: writeWIN1YCOORDBottom8(data); break;
+            case 0x047: writeWIN1YCOORDTop8(data); break;
+            case 0x048: writeWIN0IN8(data); break;
+            case 0x049: writeWIN1IN8(data); break;
+            case 0x04A: writeWINOUT8(data); break;
+            case 0x04B: writeWINOBJIN8(data); break;
+            case 0x04C: writeMOSAIC8_0(data); break;
+            case 0x04D: writeMOSAIC8_1(data); break;
+            case 0x050: writeBLDCNT8_0(data); break;
+            case 0x051: writeBLDCNT8_1(data); break;
+            case 0x052: writeBLDALPHA8_0(data); break;
+            case 0x053: writeBLDALPHA8_1(data); break;
+            case 0x054: writeBLDY8(data); break;
+            default:
+                // Unused
+        }
+    }
+
+    /**
+     * 16-bit write to the PPU registers, address is halfword aligned.
+     */
+    public void writeIO16(int address, int data) {
+        if (journal != null) {
+            if (address == 0x000) {
+                displayControl = data;
+            }
+            journal.pushCommand(GameBoyAdvanceRendererJournal.COMMAND_IO16 | address, data);
+            return;
+        }
+        data &= 0xFFFF;
+        recordRegisterWrite(address, data, 2);
+        switch (address) {
+            case 0x000: writeDISPCNT16(data); break;
+            case 0x002: writeDISPCNT8_2(data & 0xFF); break;
+            case 0x008: writeBG0CNT16(data); break;
+            case 0x00A: writeBG1CNT16(data); break;
+            case 0x00C: writeBG2CNT16(data); break;
+            case 0x00E: writeBG3CNT16(data); break;
+            case 0x010: writeBG0HOFS16(data); break;
+            case 0x012: writeBG0VOFS16(data); break;
+            case 0x014: writeBG1HOFS16(data); break;
+            case 0x016: writeBG1VOFS16(data); break;
+            case 0x018: writeBG2HOFS16(data); break;
+            case 0x01A: writeBG2VOFS16(data); break;
+            case 0x01C: writeBG3HOFS16(data); break;
+            case 0x01E: writeBG3VOFS16(data); break;
+            case 0x020: writeBG2PA16(data); break;
+            case 0x022: writeBG2PB16(data); break;
+            case 0x024: writeBG2PC16(data); break;
+            case 0x026: writeBG2PD16(data); break;
+            case 0x028: writeBG2X16_0(data); break;
+            case 0x02A: writeBG2X16_1(data); break;
+            case 0x02C: writeBG2Y16_0(data); break;
+            case 0x02E: writeBG2Y16_1(data); break;
+            case 0x030: writeBG3PA16(data); break;
+            case 0x032: writeBG3PB16(data); break;
+            case 0x034: writeBG3PC16(data); break;
+            case 0x036: writeBG3PD16(data); break;
+            case 0x038: writeBG3X16_0(data); break;
+            case 0x03A: writeBG3X16_1(data); break;
+            case 0x03C: writeBG3Y16_0(data); break;
+            case 0x03E: writeBG3Y16_1(data); break;
+            case 0x040: writeWIN0XCOORD16(data); break;
+            case 0x042: writeWIN1XCOORD16(data); break;
+            case 0x044: writeWIN0YCOORD16(data); break;
+            case 0x046: writeWIN1YCOORD16(data); break;
+            case 0x048: writeWININ16(data); break;
+            case 0x04A: writeWINOUT16(data); break;
+            case 0x04C: writeMOSAIC16(data); break;
+            case 0x050: writeBLDCNT16(data); break;
+            case 0x052: writeBLDALPHA16(data); break;
+            case 0x054: writeBLDY8(data & 0xFF); break;
+            default:
+                // Unused
+        }
+    }
+
+    /**
+     * 32-bit write to the PPU registers, address is word aligned.
+     */
+    public void writeIO32(int address, int data) {
+        if (journal != null) {
+            if (address == 0x000) {
+                displayControl = data;
+            }
+            journal.pushCommand(GameBoyAdvanceRendererJournal.COMMAND_IO32 | address, data);
+            return;
+        }
+        recordRegisterWrite(address, data, 4);
+        switch (address) {
+            case 0x000: writeDISPCNT32(data); break;
+            case 0x008: writeBG0BG1CNT32(data); break;
+            case 0x00C: writeBG2BG3CNT32(data); break;
+            case 0x010: writeBG0OFS32(data); break;
+            case 0x014: writeBG1OFS32(data); break;
+            case 0x018: writeBG2OFS32(data); break;
+            case 0x01C: writeBG3OFS32(data); break;
+            case 0x020: writeBG2PAB32(data); break;
+            case 0x024: writeBG2PCD32(data); break;
+            case 0x028: writeBG2X32(data); break;
+            case 0x02C: writeBG2Y32(data); break;
+            case 0x030: writeBG3PAB32(data); break;
+            case 0x034: writeBG3PCD32(data); break;
+            case 0x038: writeBG3X32(data); break;
+            case 0x03C: writeBG3Y32(data); break;
+            case 0x040: writeWINXCOORD32(data); break;
+            case 0x044: writeWINYCOORD32(data); break;
+            case 0x048: writeWINCONTROL32(data); break;
+            case 0x04C: writeMOSAIC16(data & 0xFFFF); break;
+            case 0x050: writeBLDCNT32(data); break;
+            case 0x054: writeBLDY8(data & 0xFF); break;
+            default:
+                // Unused
+        }
+    }
+
+    /**
+     * Apply a journaled write, see GameBoyAdvanceRendererJournal.
+     */
+    public void replayCommand(int command, int data) {
+        int address = command & 0xFFFF;
+        switch (command >> 16) {
+            case 1: writeVRAM16(address, data); break;
+            case 2: writeVRAM32(address, data); break;
+            case 3: writePalette16(address, data); break;
+            case 4: writePalette32(address, data); break;
+            case 5: writeOAM16(address, data); break;
+            case 6: writeOAM32(address, data); break;
+            case 7: writeIO8(address, data); break;
+            case 8: writeIO16(address, data); break;
+            case 9: writeIO32(address, data); break;
+            default:
+                // Scanline markers are handled by the journal
+        }
+    }
+
     // Register write methods
     public void writeDISPCNT8_0(int data) {
         graphicsJIT();
@@ -485,26 +888,50 @@ public class GameBoyAdvanceRenderer {
         return displayControl;
     }
 
-    public byte[] getSwizzledFrame() {
-        return swizzledFrame;
-    }
-
     public int[] getFrameBuffer() {
+        if (journal != null) {
+            // Last frame the journal's renderers completed
+            return journal.getFrameBuffer();
+        }
         return frameBuffer;
     }
 
     // Palette write methods
     public void writePalette16(int address, int data) {
+        if (journal != null) {
+            // Keep the CPU visible copy current and journal the write
+            paletteRAM16.put(address & 0x1FF, (short)(data & 0xFFFF));
+            journal.pushCommand(GameBoyAdvanceRendererJournal.COMMAND_PALETTE16 | (address & 0x1FF), data);
+            return;
+        }
         graphicsJIT();
-        memory.paletteRAM16.put(address & 0x1FF, (short)(data & 0xFFFF));
+        paletteRAM16.put(address & 0x1FF, (short)(data & 0xFFFF));
+        if ((address & 0x1FF) < 0x100) {
+            BGPaletteGeneration++;
+            invalidateBGPalette();
+        } else {
+            OBJPaletteGeneration++;
+        }
         data = data & 0x7FFF;
         writePalette256Color(address, data);
         writePalette16Color(address, data);
     }
 
     public void writePalette32(int address, int data) {
+        if (journal != null) {
+            // Keep the CPU visible copy current and journal the write
+            paletteRAM32.put(address & 0xFF, data);
+            journal.pushCommand(GameBoyAdvanceRendererJournal.COMMAND_PALETTE32 | (address & 0xFF), data);
+            return;
+        }
         graphicsJIT();
-        memory.paletteRAM32.put(address & 0xFF, data);
+        paletteRAM32.put(address & 0xFF, data);
+        if ((address & 0xFF) < 0x80) {
+            BGPaletteGeneration++;
+            invalidateBGPalette();
+        } else {
+            OBJPaletteGeneration++;
+        }
         address = address << 1;
         int palette = data & 0x7FFF;
         writePalette256Color(address, palette);
@@ -542,48 +969,112 @@ public class GameBoyAdvanceRenderer {
     }
 
     public int readPalette16(int address) {
-        return memory.paletteRAM16.get(address & 0x1FF) & 0xFFFF;
+        return paletteRAM16.get(address & 0x1FF) & 0xFFFF;
     }
 
     public int readPalette32(int address) {
-        return memory.paletteRAM32.get(address & 0xFF);
+        return paletteRAM32.get(address & 0xFF);
     }
 
     public int readPalette8(int address) {
-        return memory.paletteRAM[address & 0x3FF] & 0xFF;
+        return paletteRAM[address & 0x3FF] & 0xFF;
     }
 
     // VRAM write methods
+    public void writeVRAM8(int address, int data) {
+        // Byte writes land in both halves of the halfword in BG VRAM and are ignored in OBJ VRAM
+        int limit = ((displayControl & 0x7) < 3) ? 0x10000 : 0x14000;
+        if ((address & 0x1FFFF) < limit) {
+            writeVRAM16((address & 0x1FFFF) >> 1, (data & 0xFF) * 0x101);
+        }
+    }
+
     public void writeVRAM16(int address, int data) {
+        if (journal != null) {
+            // Keep the CPU visible copy current and journal the write
+            VRAM16.put(address & 0xFFFF, (short)(data & 0xFFFF));
+            journal.pushCommand(GameBoyAdvanceRendererJournal.COMMAND_VRAM16 | (address & 0xFFFF), data);
+            return;
+        }
         graphicsJIT();
-        memory.VRAM16.put(address & 0xFFFF, (short)(data & 0xFFFF));
+        VRAM16.put(address & 0xFFFF, (short)(data & 0xFFFF));
+        countVRAMWrite((address & 0xFFFF) << 1);
+        tileCache.invalidateVRAM16(address & 0xFFFF);
+        invalidateBGRows((address & 0xFFFF) << 1);
     }
 
     public void writeVRAM32(int address, int data) {
+        if (journal != null) {
+            // Keep the CPU visible copy current and journal the write
+            VRAM32.put(address & 0x7FFF, data);
+            journal.pushCommand(GameBoyAdvanceRendererJournal.COMMAND_VRAM32 | (address & 0x7FFF), data);
+            return;
+        }
         graphicsJIT();
-        memory.VRAM32.put(address & 0x7FFF, data);
+        VRAM32.put(address & 0x7FFF, data);
+        countVRAMWrite((address & 0x7FFF) << 2);
+        tileCache.invalidateVRAM32(address & 0x7FFF);
+        invalidateBGRows((address & 0x7FFF) << 2);
+    }
+
+    /**
+     * Advance the write generation of the VRAM half holding the given byte address.
+     */
+    public void countVRAMWrite(int address) {
+        if (address < 0x10000) {
+            BGVRAMGeneration++;
+        } else {
+            OBJVRAMGeneration++;
+        }
+    }
+
+    /**
+     * Drop the text BG rows decoded from the VRAM at the given byte address.
+     */
+    public void invalidateBGRows(int address) {
+        bg0Renderer.invalidateVRAM(address);
+        bg1Renderer.invalidateVRAM(address);
+        bg2TextRenderer.invalidateVRAM(address);
+        bg3TextRenderer.invalidateVRAM(address);
+    }
+
+    public void invalidateBGPalette() {
+        bg0Renderer.invalidateRowCache();
+        bg1Renderer.invalidateRowCache();
+        bg2TextRenderer.invalidateRowCache();
+        bg3TextRenderer.invalidateRowCache();
     }
 
     public int readVRAM8(int address) {
-        return memory.VRAM[address & 0x1FFFF] & 0xFF;
+        return VRAM[address & 0x1FFFF] & 0xFF;
     }
 
     public int readVRAM16(int address) {
-        return memory.VRAM16.get(address & 0xFFFF) & 0xFFFF;
+        return VRAM16.get(address & 0xFFFF) & 0xFFFF;
     }
 
     public int readVRAM32(int address) {
-        return memory.VRAM32.get(address & 0x7FFF);
+        return VRAM32.get(address & 0x7FFF);
     }
 
     // OAM access methods
     public void writeOAM16(int address, int data) {
+        if (journal != null) {
+            journal.pushCommand(GameBoyAdvanceRendererJournal.COMMAND_OAM16 | (address & 0x1FF), data);
+            return;
+        }
         graphicsJIT();
+        OAMGeneration++;
         objRenderer.writeOAM16(address & 0x1FF, data & 0xFFFF);
     }
 
     public void writeOAM32(int address, int data) {
+        if (journal != null) {
+            journal.pushCommand(GameBoyAdvanceRendererJournal.COMMAND_OAM32 | (address & 0xFF), data);
+            return;
+        }
         graphicsJIT();
+        OAMGeneration++;
         objRenderer.writeOAM32(address & 0xFF, data);
     }
 
@@ -868,8 +1359,8 @@ public class GameBoyAdvanceRenderer {
 
     // Mosaic writes
     public void writeMOSAIC8_0(int data) { graphicsJIT(); mosaicRenderer.writeMOSAIC8_0(data); }
-    public void writeMOSAIC8_1(int data) { graphicsJIT(); mosaicRenderer.writeMOSAIC8_1(data); }
-    public void writeMOSAIC16(int data) { graphicsJIT(); mosaicRenderer.writeMOSAIC16(data); }
+    public void writeMOSAIC8_1(int data) { graphicsJIT(); mosaicRenderer.writeMOSAIC8_1(data); objRenderer.mosaicChanged(); }
+    public void writeMOSAIC16(int data) { graphicsJIT(); mosaicRenderer.writeMOSAIC16(data); objRenderer.mosaicChanged(); }
 
     // Color effects (blending) writes
     public void writeBLDCNT8_0(int data) { graphicsJIT(); colorEffectsRenderer.writeBLDCNT8_0(data); }
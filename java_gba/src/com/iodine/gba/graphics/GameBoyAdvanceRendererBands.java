@@ -0,0 +1,95 @@
+package com.iodine.gba.graphics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * GameBoyAdvanceRendererBands - Band-parallel frame rendering
+ *
+ * Rendering is deferred to V-blank. Until then the renderer writes of the frame are recorded
+ * in order, with a marker for every scanline, so the journal holds the register, VRAM,
+ * palette and OAM state every line was drawn with. At V-blank the frame is split into
+ * horizontal bands rendered in parallel on a ForkJoinPool. Each band owns a full renderer
+ * instance, with its own line buffer and VRAM, palette and OAM copies, that replays the
+ * whole journal but only draws the lines of its band into the shared frame buffer. Lines
+ * outside the band still advance the affine reference counters, so the output matches
+ * serial rendering exactly.
+ */
+public class GameBoyAdvanceRendererBands extends GameBoyAdvanceRendererFrameJournal {
+    public GameBoyAdvanceRenderer gfx;
+    public BandTask[] bandTasks;
+    public RecursiveAction frameTask;
+    public ForkJoinPool pool;
+
+    public GameBoyAdvanceRendererBands(GameBoyAdvanceRenderer gfx, boolean skippingBIOS, int bandCount) {
+        this.gfx = gfx;
+        if (bandCount <= 0) {
+            bandCount = Runtime.getRuntime().availableProcessors();
+        }
+        bandCount = Math.min(bandCount, 160);
+        bandTasks = new BandTask[bandCount];
+        for (int band = 0; band < bandCount; band++) {
+            // Start from copies of the CPU visible memory
+            GameBoyAdvanceRenderer renderer = new GameBoyAdvanceRenderer(gfx.IOCore);
+            renderer.initialize(skippingBIOS, gfx.VRAM.clone(), gfx.paletteRAM.clone());
+            // All bands draw into the frame buffer of the I/O core's renderer
+            renderer.frameBuffer = gfx.frameBuffer;
+            renderer.colorTable = gfx.colorTable;
+            renderer.bandStart = (band * 160) / bandCount;
+            renderer.bandEnd = ((band + 1) * 160) / bandCount;
+            bandTasks[band] = new BandTask(renderer);
+        }
+        frameTask = new RecursiveAction() {
+            @Override
+            protected void compute() {
+                for (BandTask bandTask : bandTasks) {
+                    bandTask.reinitialize();
+                }
+                invokeAll(bandTasks);
+            }
+        };
+        pool = new ForkJoinPool(bandCount);
+    }
+
+    @Override
+    public void frameEnd() {
+        frameTask.reinitialize();
+        pool.invoke(frameTask);
+        journalLength = 0;
+        // Every band makes the same framing decision
+        if (bandTasks[0].framed && !gfx.skipFrame) {
+            gfx.prepareFrame();
+        }
+        // The display may have swapped the output buffer, the bands skip frames together
+        gfx.selectFrameSkip();
+        for (BandTask bandTask : bandTasks) {
+            bandTask.renderer.frameBuffer = gfx.frameBuffer;
+            bandTask.renderer.skipFrame = gfx.skipFrame;
+        }
+    }
+
+    @Override
+    public int[] getFrameBuffer() {
+        return gfx.frameBuffer;
+    }
+
+    public void terminate() {
+        pool.shutdown();
+    }
+
+    public class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        public GameBoyAdvanceRenderer renderer;
+        public boolean framed;
+
+        public BandTask(GameBoyAdvanceRenderer renderer) {
+            this.renderer = renderer;
+        }
+
+        @Override
+        protected void compute() {
+            framed = replayFrame(renderer, journal, journalLength);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.iodine.gba.graphics;
+
+import java.util.Arrays;
+
+/**
+ * GameBoyAdvanceRendererFrameJournal - Journal replayed once per frame
+ *
+ * Base of the journals that record the renderer writes of a whole frame, with a marker for
+ * every scanline, and replay them at V-blank (band-parallel and headless rendering).
+ */
+public abstract class GameBoyAdvanceRendererFrameJournal implements GameBoyAdvanceRendererJournal {
+    // Writes of the current frame, two ints per command
+    public int[] journal = new int[0x10000];
+    public int journalLength = 0;
+
+    @Override
+    public void pushCommand(int command, int data) {
+        if (journalLength == journal.length) {
+            journal = Arrays.copyOf(journal, journalLength << 1);
+        }
+        journal[journalLength++] = command;
+        journal[journalLength++] = data;
+    }
+
+    /**
+     * Replay the first journalLength ints of the journal on the renderer, then render up
+     * to V-blank with the same JIT framing alignment as GameBoyAdvanceRenderer.ensureFraming.
+     *
+     * @return true when the renderer completed a frame
+     */
+    public static boolean replayFrame(GameBoyAdvanceRenderer renderer, int[] journal, int journalLength) {
+        for (int index = 0; index < journalLength; index += 2) {
+            int command = journal[index];
+            if (command == COMMAND_LINE) {
+                renderer.incrementScanLineQueue();
+            } else {
+                renderer.replayCommand(command, journal[index | 1]);
+            }
+        }
+        boolean framed = renderer.totalLinesPassed < 160;
+        if (framed) {
+            renderer.graphicsJITVBlank();
+        }
+        return framed;
+    }
+}
@@ -0,0 +1,57 @@
+package com.iodine.gba.graphics;
+
+/**
+ * GameBoyAdvanceRendererHeadless - Render-less graphics with frames on request
+ *
+ * For instances that rarely need pixels. The renderer writes of the frame in progress are
+ * recorded in order with a marker for every scanline, which is all it takes to reconstruct
+ * the frame. At V-blank the journal is replayed into a private renderer: without drawing,
+ * to bring its VRAM, palette, OAM, registers and affine counters to the next frame start,
+ * or, when requestFrame was called during the frame, drawing every line and handing the
+ * frame to the display. The LCD state machine keeps its own timing, so VCOUNT, DISPSTAT,
+ * IRQs and DMA are unaffected either way.
+ */
+public class GameBoyAdvanceRendererHeadless extends GameBoyAdvanceRendererFrameJournal {
+    public GameBoyAdvanceRenderer gfx;
+    public GameBoyAdvanceRenderer renderer;
+    public boolean frameRequested;
+    public long framesRendered;
+
+    public GameBoyAdvanceRendererHeadless(GameBoyAdvanceRenderer gfx, boolean skippingBIOS) {
+        this.gfx = gfx;
+        frameRequested = false;
+        // Start from copies of the CPU visible memory
+        renderer = new GameBoyAdvanceRenderer(gfx.IOCore);
+        renderer.initialize(skippingBIOS, gfx.VRAM.clone(), gfx.paletteRAM.clone());
+        renderer.frameBuffer = gfx.frameBuffer;
+        renderer.colorTable = gfx.colorTable;
+        renderer.skipFrame = true;
+    }
+
+    @Override
+    public void requestFrame() {
+        frameRequested = true;
+    }
+
+    @Override
+    public void frameEnd() {
+        GameBoyAdvanceRenderer renderer = this.renderer;
+        boolean drawing = frameRequested;
+        renderer.skipFrame = !drawing;
+        boolean framed = replayFrame(renderer, journal, journalLength);
+        journalLength = 0;
+        if (framed && drawing) {
+            frameRequested = false;
+            framesRendered++;
+            gfx.prepareFrame();
+            // The display may have swapped the output buffer
+            renderer.frameBuffer = gfx.frameBuffer;
+        }
+        renderer.skipFrame = true;
+    }
+
+    @Override
+    public int[] getFrameBuffer() {
+        return gfx.frameBuffer;
+    }
+}
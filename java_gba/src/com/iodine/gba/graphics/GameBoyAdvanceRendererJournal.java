@@ -0,0 +1,35 @@
+package com.iodine.gba.graphics;
+
+/**
+ * Receives the renderer writes of the emulation thread when rendering is done elsewhere.
+ * Each write is a (command, data) pair, replayed by GameBoyAdvanceRenderer.replayCommand
+ * on the renderer instances that do the drawing.
+ */
+public interface GameBoyAdvanceRendererJournal {
+    // Commands, the low 16 bits carry the address or index
+    int COMMAND_LINE = 0;           // Next scanline
+    int COMMAND_VRAM16 = 0x10000;
+    int COMMAND_VRAM32 = 0x20000;
+    int COMMAND_PALETTE16 = 0x30000;
+    int COMMAND_PALETTE32 = 0x40000;
+    int COMMAND_OAM16 = 0x50000;
+    int COMMAND_OAM32 = 0x60000;
+    int COMMAND_IO8 = 0x70000;
+    int COMMAND_IO16 = 0x80000;
+    int COMMAND_IO32 = 0x90000;
+
+    void pushCommand(int command, int data);
+
+    /**
+     * Called at V-blank in place of GameBoyAdvanceRenderer.ensureFraming.
+     */
+    void frameEnd();
+
+    int[] getFrameBuffer();
+
+    /**
+     * Ask for the frame in progress to be drawn, for journals that do not draw every frame.
+     */
+    default void requestFrame() {
+    }
+}
@@ -0,0 +1,173 @@
+package com.iodine.gba.graphics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * GameBoyAdvanceRendererMemoCheck - Equivalence check for the scanline memo
+ *
+ * Runs two renderers through the same frames, one with the scanline memo and one that
+ * renders every line, and compares the frames. Lines are queued the way the LCD state
+ * machine queues them and only rendered by the JIT, so register, VRAM, palette and OAM
+ * writes land in the middle of a frame with lines still pending. The first case writes
+ * BG0HOFS once mid-frame and holds it for the next frame; the rest write at random lines.
+ * Run with
+ * java -cp bin com.iodine.gba.graphics.GameBoyAdvanceRendererMemoCheck
+ */
+public class GameBoyAdvanceRendererMemoCheck {
+    // PPU registers the random frames write, BG0CNT through BLDY
+    public static final int[] REGISTERS = {
+        0x000, 0x008, 0x00A, 0x00C, 0x00E, 0x010, 0x012, 0x014, 0x016, 0x018, 0x01A, 0x01C, 0x01E,
+        0x040, 0x042, 0x044, 0x046, 0x048, 0x04A, 0x04C, 0x050, 0x052, 0x054
+    };
+
+    public GameBoyAdvanceRenderer memoized;
+    public GameBoyAdvanceRenderer reference;
+    public Random random;
+
+    public GameBoyAdvanceRendererMemoCheck(long seed) {
+        memoized = createRenderer(false);
+        reference = createRenderer(true);
+        random = new Random(seed);
+    }
+
+    public static void main(String[] args) {
+        GameBoyAdvanceRendererMemoCheck check = new GameBoyAdvanceRendererMemoCheck(0x3E30);
+        boolean scrollMatches = check.matchesMidFrameScroll();
+        System.out.println("Mid-frame BG0HOFS write: " + (scrollMatches ? "match" : "MISMATCH"));
+        boolean randomMatches = check.matchesRandomFrames(0x100);
+        System.out.println("Random mid-frame writes: " + (randomMatches ? "match" : "MISMATCH")
+                + " (" + check.memoized.lineMemoHits + " memo hits, " + check.memoized.lineMemoMisses + " misses)");
+        if (!scrollMatches || !randomMatches) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * A renderer without an IOCore, with the memo disabled when noMemo is set.
+     */
+    public static GameBoyAdvanceRenderer createRenderer(boolean noMemo) {
+        GameBoyAdvanceRenderer renderer;
+        if (noMemo) {
+            renderer = new GameBoyAdvanceRenderer(null) {
+                @Override
+                public boolean lineMemoMatches(int line) {
+                    return false;
+                }
+            };
+        } else {
+            renderer = new GameBoyAdvanceRenderer(null);
+        }
+        renderer.initialize(false, new byte[0x18000], new byte[0x400]);
+        return renderer;
+    }
+
+    /**
+     * BG0 shows alternating tile columns; BG0HOFS moves them by a whole tile at line 100,
+     * then stays put for a second frame, which the memo must not serve from the first.
+     */
+    public boolean matchesMidFrameScroll() {
+        for (GameBoyAdvanceRenderer renderer : new GameBoyAdvanceRenderer[] {memoized, reference}) {
+            renderer.writePalette16(1, 0x001F);
+            for (int address = 0; address < 0x10; address++) {
+                renderer.writeVRAM16(address, 0x1111);
+            }
+            for (int row = 0; row < 32; row++) {
+                for (int column = 1; column < 32; column += 2) {
+                    renderer.writeVRAM16(0x2000 | (row << 5) | column, 1);
+                }
+            }
+            renderer.writeIO16(0x008, 8 << 8);
+            renderer.writeIO16(0x000, 0x0100);
+            renderer.graphicsJIT();
+        }
+        queueLines(100);
+        write16(0x010, 8);
+        queueLines(60);
+        if (!framesMatch()) {
+            return false;
+        }
+        queueLines(160);
+        return framesMatch();
+    }
+
+    /**
+     * Frames of random tiles and bitmaps, with random writes at random lines.
+     */
+    public boolean matchesRandomFrames(int frames) {
+        for (int address = 0; address < 0xC000; address++) {
+            write(3, address, random.nextInt());
+        }
+        for (int address = 0; address < 0x200; address++) {
+            write(1, address, random.nextInt());
+            write(2, address, random.nextInt());
+        }
+        for (int frame = 0; frame < frames; frame++) {
+            int line = 0;
+            while (line < 160) {
+                int lines = Math.min(random.nextInt(0x30), 160 - line);
+                queueLines(lines);
+                line += lines;
+                // Sparse writes, so the frames after them repeat lines the memo can serve
+                if (random.nextInt(6) == 0) {
+                    switch (random.nextInt(8)) {
+                        case 0: write(1, random.nextInt(0x200), random.nextInt()); break;
+                        case 1: write(2, random.nextInt(0x200), random.nextInt()); break;
+                        case 2: write(3, random.nextInt(0xC000), random.nextInt()); break;
+                        default: {
+                            int address = REGISTERS[random.nextInt(REGISTERS.length)];
+                            int data = random.nextInt();
+                            if (address == 0x000) {
+                                // Modes 0-5, no forced blank
+                                data = (data & 0xFF78) | random.nextInt(6);
+                            }
+                            write16(address, data);
+                        }
+                    }
+                }
+            }
+            if (!framesMatch()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void queueLines(int lines) {
+        for (int line = 0; line < lines; line++) {
+            memoized.incrementScanLineQueue();
+            reference.incrementScanLineQueue();
+        }
+    }
+
+    public void write16(int address, int data) {
+        memoized.writeIO16(address, data & 0xFFFF);
+        reference.writeIO16(address, data & 0xFFFF);
+    }
+
+    /**
+     * Write to palette (1), OAM (2) or VRAM (3) of both renderers.
+     */
+    public void write(int target, int address, int data) {
+        if (target == 2 && (address & 0x3) == 2) {
+            // Tile numbers below 0x200, so the largest sprites still read inside VRAM
+            data &= 0xFDFF;
+        }
+        for (GameBoyAdvanceRenderer renderer : new GameBoyAdvanceRenderer[] {memoized, reference}) {
+            switch (target) {
+                case 1: renderer.writePalette16(address, data & 0xFFFF); break;
+                case 2: renderer.writeOAM16(address, data & 0xFFFF); break;
+                default: renderer.writeVRAM16(address, data & 0xFFFF); break;
+            }
+        }
+    }
+
+    /**
+     * Render what is still queued and compare the two frames.
+     */
+    public boolean framesMatch() {
+        memoized.graphicsJIT();
+        reference.graphicsJIT();
+        return Arrays.equals(memoized.frameBuffer, reference.frameBuffer);
+    }
+}
@@ -0,0 +1,174 @@
+package com.iodine.gba.graphics;
+
+import com.iodine.gba.core.GameBoyAdvanceIO;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * GameBoyAdvanceRendererWorker - Off-thread scanline renderer (converted from RendererShim.js and Worker.js)
+ * Copyright (C) 2012-2016 Grant Galitz
+ *
+ * The emulation thread appends (command, data) pairs to a single producer, single consumer
+ * ring: PPU register writes keyed by I/O address, VRAM, palette and OAM writes keyed by
+ * index, and scanline and frame markers. Writes are replayed in order between the line
+ * markers, so each one takes effect on the same scanline it did on the emulation thread.
+ * The worker thread owns a private renderer with its own VRAM, palette and OAM, and
+ * publishes every finished frame into one of two frame buffers.
+ *
+ * The ring counters are the only shared state. The writer publishes its counter once per
+ * iteration and at every frame end; the reader releases space after each batch. When the
+ * ring is full the writer waits for the reader instead of growing the ring.
+ */
+public class GameBoyAdvanceRendererWorker implements Runnable, GameBoyAdvanceRendererJournal {
+    public static final int COMMAND_BUFFER_LENGTH = 0x80000;
+
+    public GameBoyAdvanceIO IOCore;
+    public GameBoyAdvanceRenderer renderer;    // Worker thread only
+
+    // Command ring, two ints per command
+    public int[] commandBuffer;
+    public int commandBufferMask;
+    public final AtomicInteger commandStart = new AtomicInteger();  // Written by the worker thread
+    public final AtomicInteger commandEnd = new AtomicInteger();    // Written by the emulation thread
+
+    // Writer side, emulation thread only
+    public int end;
+    public int start;
+
+    // Double-buffered frame output
+    public int[][] frameBuffers;
+    public volatile int frontBuffer;
+    public volatile long framesRendered;
+
+    public Thread thread;
+    public volatile boolean running;
+
+    public GameBoyAdvanceRendererWorker(GameBoyAdvanceIO ioCore, boolean skippingBIOS) {
+        this.IOCore = ioCore;
+        commandBuffer = new int[COMMAND_BUFFER_LENGTH];
+        commandBufferMask = COMMAND_BUFFER_LENGTH - 1;
+        end = 0;
+        start = 0;
+        frameBuffers = new int[2][38400];
+        frontBuffer = 0;
+        // Start from copies of the CPU visible memory
+        byte[] VRAM = IOCore.memory.VRAM.clone();
+        byte[] paletteRAM = IOCore.memory.paletteRAM.clone();
+        renderer = new GameBoyAdvanceRenderer(ioCore);
+        renderer.initialize(skippingBIOS, VRAM, paletteRAM);
+        renderer.colorTable = IOCore.gfxRenderer.colorTable;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this, "IodineGBA Renderer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the worker thread, called when the core instance is replaced.
+     */
+    public void terminate() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * Called from the emulation thread.
+     */
+    @Override
+    public void pushCommand(int command, int data) {
+        if ((end - start) == COMMAND_BUFFER_LENGTH) {
+            waitForSpace();
+        }
+        int index = end & commandBufferMask;
+        commandBuffer[index] = command;
+        commandBuffer[index | 1] = data;
+        end += 2;
+    }
+
+    @Override
+    public void frameEnd() {
+        // Line data 1 marks the frame end, hand the journal over right away
+        pushCommand(COMMAND_LINE, 1);
+        synchronizeWriter();
+    }
+
+    public void waitForSpace() {
+        // Hand over what we have and wait for the reader to free some of it
+        synchronizeWriter();
+        while ((end - (start = commandStart.get())) == COMMAND_BUFFER_LENGTH && running) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Publish the commands pushed so far and wake the worker.
+     */
+    public void synchronizeWriter() {
+        commandEnd.set(end);
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public void run() {
+        int[] commandBuffer = this.commandBuffer;
+        int commandBufferMask = this.commandBufferMask;
+        int readPosition = commandStart.get();
+        while (running) {
+            int writePosition = commandEnd.get();
+            if (readPosition == writePosition) {
+                LockSupport.park(this);
+                continue;
+            }
+            while (readPosition != writePosition) {
+                int index = readPosition & commandBufferMask;
+                dispatchCommand(commandBuffer[index], commandBuffer[index | 1]);
+                readPosition += 2;
+            }
+            commandStart.set(readPosition);
+        }
+    }
+
+    public void dispatchCommand(int command, int data) {
+        if (command != COMMAND_LINE) {
+            renderer.replayCommand(command, data);
+        } else if (data == 0) {
+            renderer.incrementScanLineQueue();
+        } else {
+            // The display may swap the output buffer while framing
+            int[] frameBuffer = renderer.frameBuffer;
+            boolean skipped = renderer.skipFrame;
+            renderer.ensureFraming();
+            if (!skipped) {
+                publishFrame(frameBuffer);
+            }
+        }
+    }
+
+    public void publishFrame(int[] frameBuffer) {
+        int backBuffer = frontBuffer ^ 1;
+        System.arraycopy(frameBuffer, 0, frameBuffers[backBuffer], 0, 38400);
+        frontBuffer = backBuffer;
+        framesRendered++;
+    }
+
+    /**
+     * Last completed frame, safe to read from any thread until the next frame is published.
+     */
+    @Override
+    public int[] getFrameBuffer() {
+        return frameBuffers[frontBuffer];
+    }
+}
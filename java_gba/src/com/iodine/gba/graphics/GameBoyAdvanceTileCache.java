@@ -0,0 +1,119 @@
+package com.iodine.gba.graphics;
+
+/**
+ * GameBoyAdvanceTileCache - Decoded BG tile rows
+ *
+ * Holds the palette indices of every tile row in the BG half of VRAM (the first 64KB),
+ * expanded to one byte per pixel and stored twice, in VRAM order and horizontally flipped,
+ * for both the 4-bit and the 8-bit tile layouts. A VRAM write marks the tiles it touches
+ * dirty and a tile is decoded again, all eight rows at once, the next time one of its rows
+ * is fetched. Tile graphics rarely change, so rendering a tile row is a copy through the
+ * palette.
+ *
+ * Row layout: row << 4 holds the eight pixels in VRAM order, (row << 4) | 8 the flipped
+ * pixels. 4-bit rows are indexed by VRAM word address, 8-bit rows by word address >> 1.
+ */
+public class GameBoyAdvanceTileCache {
+    public GameBoyAdvanceRenderer gfx;
+    public byte[] VRAM;
+
+    public byte[] decoded4Bit = new byte[0x40000];
+    public byte[] decoded8Bit = new byte[0x20000];
+    // Dirty flags per 32 byte 4-bit tile and per 64 byte 8-bit tile
+    public boolean[] dirty4Bit = new boolean[0x800];
+    public boolean[] dirty8Bit = new boolean[0x400];
+
+    public GameBoyAdvanceTileCache(GameBoyAdvanceRenderer gfx) {
+        this.gfx = gfx;
+    }
+
+    public void initialize() {
+        VRAM = gfx.VRAM;
+        invalidateAll();
+    }
+
+    public void invalidateAll() {
+        java.util.Arrays.fill(dirty4Bit, true);
+        java.util.Arrays.fill(dirty8Bit, true);
+    }
+
+    /**
+     * Called after a VRAM halfword write, address in halfwords.
+     */
+    public void invalidateVRAM16(int address) {
+        if (address < 0x8000) {
+            dirty4Bit[address >> 4] = true;
+            dirty8Bit[address >> 5] = true;
+        }
+    }
+
+    /**
+     * Called after a VRAM word write, address in words.
+     */
+    public void invalidateVRAM32(int address) {
+        if (address < 0x4000) {
+            dirty4Bit[address >> 3] = true;
+            dirty8Bit[address >> 4] = true;
+        }
+    }
+
+    /**
+     * Make the 4-bit row at the given VRAM word address current.
+     * @return Offset of the row in decoded4Bit
+     */
+    public int fetch4BitRow(int address) {
+        int tile = address >> 3;
+        if (dirty4Bit[tile]) {
+            decode4BitTile(tile);
+        }
+        return address << 4;
+    }
+
+    /**
+     * Make the 8-bit row at the given (even) VRAM word address current.
+     * @return Offset of the row in decoded8Bit
+     */
+    public int fetch8BitRow(int address) {
+        int tile = address >> 4;
+        if (dirty8Bit[tile]) {
+            decode8BitTile(tile);
+        }
+        return (address >> 1) << 4;
+    }
+
+    public void decode4BitTile(int tile) {
+        byte[] VRAM = this.VRAM;
+        byte[] decoded = decoded4Bit;
+        int source = tile << 5;
+        int destination = tile << 7;
+        for (int row = 0; row < 8; row++) {
+            for (int pixel = 0; pixel < 8; pixel += 2) {
+                int data = VRAM[source++];
+                byte left = (byte)(data & 0xF);
+                byte right = (byte)((data >> 4) & 0xF);
+                decoded[destination | pixel] = left;
+                decoded[destination | (pixel + 1)] = right;
+                decoded[destination | (15 - pixel)] = left;
+                decoded[destination | (14 - pixel)] = right;
+            }
+            destination += 16;
+        }
+        dirty4Bit[tile] = false;
+    }
+
+    public void decode8BitTile(int tile) {
+        byte[] VRAM = this.VRAM;
+        byte[] decoded = decoded8Bit;
+        int source = tile << 6;
+        int destination = tile << 7;
+        for (int row = 0; row < 8; row++) {
+            for (int pixel = 0; pixel < 8; pixel++) {
+                byte data = VRAM[source++];
+                decoded[destination | pixel] = data;
+                decoded[destination | (15 - pixel)] = data;
+            }
+            destination += 16;
+        }
+        dirty8Bit[tile] = false;
+    }
+}
@@ -4,5 +4,9 @@ package com.iodine.gba.graphics;
  * GraphicsFrameCallback - Interface for receiving rendered frames
  */
 public interface GraphicsFrameCallback {
-    void onFrame(byte[] swizzledFrame);
+    /**
+     * @param frame 240x160 ARGB pixels, row major
+     * @return Buffer to draw the next frame into, frame itself to keep drawing in place
+     */
+    int[] onFrame(int[] frame);
 }
@@ -7,6 +7,7 @@ import com.iodine.gba.core.GameBoyAdvanceIO;
  */
 public class GameBoyAdvanceWait {
     public GameBoyAdvanceIO IOCore;
+    public int POSTBOOT = 0;
 
     public GameBoyAdvanceWait(GameBoyAdvanceIO ioCore) {
         this.IOCore = ioCore;
@@ -54,6 +55,23 @@ public class GameBoyAdvanceWait {
         // Clear non-sequential flag
     }
 
+    public void writeHALTCNT(int data) {
+        IOCore.updateCoreSpillRetain();
+        // HALT/STOP mode entrance
+        if ((data & 0x80) == 0) {
+            // Halt
+            IOCore.flagHalt();
+        } else {
+            // Stop
+            IOCore.flagStop();
+        }
+    }
+
+    public void writeHALT16(int data) {
+        POSTBOOT = data & 0xFF;
+        writeHALTCNT(data >> 8);
+    }
+
     public void updateRenderStatus(int isRendering, int isOAMRendering) {
         // TODO: Convert from Wait.js - update wait states based on rendering status
     }
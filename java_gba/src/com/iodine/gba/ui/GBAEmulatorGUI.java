@@ -5,16 +5,20 @@ import com.iodine.gba.core.GameBoyAdvanceEmulator;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * GBAEmulatorGUI - Swing-based GUI for the GBA emulator
  */
 public class GBAEmulatorGUI extends JFrame {
     private GameBoyAdvanceEmulator emulator;
-    private DisplayPanel displayPanel;
+    private DisplayCanvas displayCanvas;
     private Timer emulatorTimer;
     private boolean running = false;
 
@@ -45,15 +49,19 @@ public class GBAEmulatorGUI extends JFrame {
         pack();
         setLocationRelativeTo(null);
         setVisible(true);
+
+        // The buffer strategy needs a displayable canvas
+        displayCanvas.startPresenting();
     }
 
     private void setupUI() {
         setLayout(new BorderLayout());
 
-        // Display panel (240x160 scaled 2x = 480x320)
-        displayPanel = new DisplayPanel();
-        displayPanel.setPreferredSize(new Dimension(480, 320));
-        add(displayPanel, BorderLayout.CENTER);
+        // Display canvas (240x160 scaled 2x = 480x320)
+        displayCanvas = new DisplayCanvas();
+        displayCanvas.setPreferredSize(new Dimension(480, 320));
+        add(displayCanvas, BorderLayout.CENTER);
+        emulator.graphicsFrameCallback = displayCanvas;
 
         // Control panel
         JPanel controlPanel = new JPanel();
@@ -80,6 +88,9 @@ public class GBAEmulatorGUI extends JFrame {
         // Status panel
         JPanel statusPanel = new JPanel();
         JLabel statusLabel = new JLabel("Ready - Load BIOS and ROM to start");
+        if (emulator.vectorCompositorError != null) {
+            statusLabel.setText(statusLabel.getText() + " (vector compositor unavailable: " + emulator.vectorCompositorError + ")");
+        }
         statusPanel.add(statusLabel);
         add(statusPanel, BorderLayout.NORTH);
     }
@@ -112,13 +123,11 @@ public class GBAEmulatorGUI extends JFrame {
     }
 
     private void setupEmulatorTimer() {
-        // Run at approximately 60 FPS
+        // Run at approximately 60 FPS, frames reach the display canvas on their own
         emulatorTimer = new Timer(16, e -> {
             if (running) {
                 long timestamp = System.currentTimeMillis();
                 emulator.timerCallback(timestamp);
-                displayPanel.updateDisplay();
-                displayPanel.repaint();
             }
         });
     }
@@ -181,26 +190,78 @@ public class GBAEmulatorGUI extends JFrame {
         startEmulation();
     }
 
-    // Display panel for rendering GBA screen
-    class DisplayPanel extends JPanel {
-        private BufferedImage display;
+    /**
+     * Display canvas for the GBA screen, presented by active rendering on its own thread.
+     *
+     * The renderer draws straight into the int[] behind one of three images (triple
+     * buffering): the one being drawn, the newest finished one and the one on screen. A
+     * finished frame is swapped with the newest one and the presenter thread blits whichever
+     * is newest when it wakes, so presenting a frame is a single scaled drawImage.
+     */
+    class DisplayCanvas extends Canvas implements com.iodine.gba.graphics.GraphicsFrameCallback {
+        private static final long serialVersionUID = 1L;
+        private static final int FRESH = 0x4;  // Newest frame not presented yet
 
-        public DisplayPanel() {
-            display = new BufferedImage(240, 160, BufferedImage.TYPE_INT_RGB);
-        }
+        private final BufferedImage[] images = new BufferedImage[3];
+        private final int[][] frames = new int[3][];
+        private final AtomicInteger newest = new AtomicInteger(1);  // Index | FRESH
+        private int drawing = 0;    // Renderer thread only
+        private int presented = 2;  // Presenter thread only
+        private Thread presenter;
 
-        public void updateDisplay() {
-            if (emulator.IOCore != null && emulator.IOCore.gfxRenderer != null) {
-                int[] frameBuffer = emulator.IOCore.gfxRenderer.getFrameBuffer();
-                display.setRGB(0, 0, 240, 160, frameBuffer, 0, 240);
+        public DisplayCanvas() {
+            for (int index = 0; index < 3; index++) {
+                images[index] = new BufferedImage(240, 160, BufferedImage.TYPE_INT_RGB);
+                frames[index] = ((DataBufferInt) images[index].getRaster().getDataBuffer()).getData();
             }
+            setBackground(Color.BLACK);
+            setIgnoreRepaint(true);
+            // Keep the key events on the frame
+            setFocusable(false);
         }
 
+        /**
+         * Called on the rendering thread at every frame end.
+         */
         @Override
-        protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
-            // Scale 2x for better visibility
-            g.drawImage(display, 0, 0, 480, 320, null);
+        public int[] onFrame(int[] frame) {
+            if (frame != frames[drawing]) {
+                // First frame of a new core, still in the renderer's own buffer
+                System.arraycopy(frame, 0, frames[drawing], 0, 38400);
+            }
+            drawing = newest.getAndSet(drawing | FRESH) & 0x3;
+            LockSupport.unpark(presenter);
+            return frames[drawing];
+        }
+
+        public void startPresenting() {
+            createBufferStrategy(2);
+            presenter = new Thread(this::presentLoop, "IodineGBA Display");
+            presenter.setDaemon(true);
+            presenter.start();
+        }
+
+        private void presentLoop() {
+            BufferStrategy strategy = getBufferStrategy();
+            while (true) {
+                if ((newest.get() & FRESH) != 0) {
+                    presented = newest.getAndSet(presented) & 0x3;
+                }
+                present(strategy);
+                // Sleep until the next frame, waking periodically to repair lost contents
+                LockSupport.parkNanos(100000000L);
+            }
+        }
+
+        private void present(BufferStrategy strategy) {
+            do {
+                do {
+                    Graphics g = strategy.getDrawGraphics();
+                    g.drawImage(images[presented], 0, 0, getWidth(), getHeight(), null);
+                    g.dispose();
+                } while (strategy.contentsRestored());
+                strategy.show();
+            } while (strategy.contentsLost());
         }
     }
 